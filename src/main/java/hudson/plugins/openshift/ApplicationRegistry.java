@@ -0,0 +1,181 @@
+package hudson.plugins.openshift;
+
+import com.openshift.client.IApplication;
+import com.openshift.client.IDomain;
+import com.openshift.client.IOpenShiftConnection;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * In-memory index of the applications visible to the broker account, keyed
+ * by UUID and, for the builder namespace, by name.
+ * <p/>
+ * The index is filled by one bulk listing, kept current incrementally as
+ * builders are created and destroyed by this plugin, and rebuilt once it is
+ * older than the configured staleness bound. Changes recorded while a
+ * rebuild is listing are re-applied on top of its result, which may predate
+ * them.
+ */
+public class ApplicationRegistry {
+    private static final Logger LOGGER = Logger
+            .getLogger(ApplicationRegistry.class.getName());
+
+    private final OpenShiftCloud cloud;
+    private final String namespace;
+    private final long staleness;
+
+    private volatile Map<String, IApplication> byUuid = new ConcurrentHashMap<String, IApplication>();
+    private volatile Map<String, IApplication> byName = new ConcurrentHashMap<String, IApplication>();
+    private volatile long lastRefresh;
+    private final Object changesLock = new Object();
+    // Changes made during a refresh by name, null marking an unregistration
+    private Map<String, IApplication> changes;
+
+    public ApplicationRegistry(OpenShiftCloud cloud, String namespace, long staleness) {
+        this.cloud = cloud;
+        this.namespace = namespace;
+        this.staleness = staleness;
+    }
+
+    /**
+     * Returns the application with the given UUID in any domain, or null.
+     */
+    public IApplication getByUuid(String uuid) throws IOException {
+        ensureFresh();
+        return byUuid.get(uuid);
+    }
+
+    /**
+     * Returns the application with the given name in the builder namespace,
+     * or null.
+     */
+    public IApplication getByName(String name) throws IOException {
+        ensureFresh();
+        return byName.get(name);
+    }
+
+    /**
+     * Like {@link #getByName(String)}, but asks the builder namespace on the
+     * broker when the index misses, e.g. for an application created after the
+     * last listing. An application found that way is registered.
+     */
+    public IApplication findByName(String name) throws IOException {
+        IApplication app = getByName(name);
+        if (app == null) {
+            IDomain domain = cloud.getOpenShiftConnection().getUser().getDomain(namespace);
+            app = domain == null ? null : domain.getApplicationByName(name);
+            if (app != null) {
+                register(app);
+            }
+        }
+        return app;
+    }
+
+    /**
+     * Returns the applications of the builder namespace.
+     */
+    public Collection<IApplication> getApplications() throws IOException {
+        ensureFresh();
+        return Collections.unmodifiableCollection(byName.values());
+    }
+
+    /**
+     * Records an application created (or looked up directly) in the builder
+     * namespace without waiting for the next bulk listing.
+     */
+    public void register(IApplication app) {
+        synchronized (changesLock) {
+            byName.put(app.getName(), app);
+            byUuid.put(app.getUUID(), app);
+            if (changes != null) {
+                changes.put(app.getName(), app);
+            }
+        }
+    }
+
+    /**
+     * Forgets an application of the builder namespace, e.g. after destroying
+     * it.
+     */
+    public void unregister(String name) {
+        synchronized (changesLock) {
+            IApplication app = byName.remove(name);
+            if (app != null) {
+                byUuid.remove(app.getUUID());
+            }
+            if (changes != null) {
+                changes.put(name, null);
+            }
+        }
+    }
+
+    /**
+     * Forces the next lookup to rebuild the index from the broker.
+     */
+    public void invalidate() {
+        lastRefresh = 0;
+    }
+
+    private void ensureFresh() throws IOException {
+        if (System.currentTimeMillis() - lastRefresh > staleness) {
+            refresh();
+        }
+    }
+
+    private synchronized void refresh() throws IOException {
+        if (System.currentTimeMillis() - lastRefresh <= staleness) {
+            // Another thread refreshed while we were waiting
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        synchronized (changesLock) {
+            changes = new LinkedHashMap<String, IApplication>();
+        }
+        Map<String, IApplication> uuids = new ConcurrentHashMap<String, IApplication>();
+        Map<String, IApplication> names = new ConcurrentHashMap<String, IApplication>();
+        try {
+            IOpenShiftConnection connection = cloud.getOpenShiftConnection();
+            for (IDomain domain : connection.getDomains()) {
+                domain.refresh();
+                boolean builderDomain = domain.getId().equals(namespace);
+                for (IApplication app : domain.getApplications()) {
+                    uuids.put(app.getUUID(), app);
+                    if (builderDomain) {
+                        names.put(app.getName(), app);
+                    }
+                }
+            }
+
+            synchronized (changesLock) {
+                for (Map.Entry<String, IApplication> change : changes.entrySet()) {
+                    IApplication listed = names.remove(change.getKey());
+                    if (listed != null) {
+                        uuids.remove(listed.getUUID());
+                    }
+                    IApplication app = change.getValue();
+                    if (app != null) {
+                        names.put(app.getName(), app);
+                        uuids.put(app.getUUID(), app);
+                    }
+                }
+                byUuid = uuids;
+                byName = names;
+                lastRefresh = System.currentTimeMillis();
+            }
+        } finally {
+            synchronized (changesLock) {
+                changes = null;
+            }
+        }
+
+        LOGGER.info("Indexed " + uuids.size() + " applications (" + names.size()
+                + " in " + namespace + ") in " + (lastRefresh - start) + "ms");
+    }
+}
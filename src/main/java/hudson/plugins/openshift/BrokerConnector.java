@@ -0,0 +1,28 @@
+package hudson.plugins.openshift;
+
+import com.openshift.client.IOpenShiftConnection;
+import com.openshift.client.NoopSSLCertificateCallback;
+import com.openshift.client.OpenShiftConnectionFactory;
+import com.openshift.client.OpenShiftException;
+
+/**
+ * Opens connections to the broker. Implementations can be plugged into
+ * {@link OpenShiftCloud} to talk to a fake broker, e.g. in tests or
+ * benchmarks.
+ */
+public interface BrokerConnector {
+    IOpenShiftConnection connect(String username, String password, String authKey,
+                                 String authIV, String url) throws OpenShiftException;
+
+    /**
+     * Connects through the openshift-java-client.
+     */
+    public static class ClientBrokerConnector implements BrokerConnector {
+        public IOpenShiftConnection connect(String username, String password, String authKey,
+                                            String authIV, String url) throws OpenShiftException {
+            return new OpenShiftConnectionFactory().getConnection(
+                    username, username, password, authKey, authIV, null, url,
+                    new NoopSSLCertificateCallback());
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package hudson.plugins.openshift;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.openshift.client.OpenShiftException;
+
+/**
+ * Routes the broker calls made through an {@link com.openshift.client.IOpenShiftConnection}
+ * through a {@link CircuitBreaker}.
+ * <p/>
+ * Users, domains, applications and the other client resources returned by a
+ * call are wrapped as well, so calls on them are guarded too. Accessors of
+ * already loaded state are passed straight through; only methods that may
+ * talk to the broker ask the breaker for permission and report their outcome.
+ * <p/>
+ * Those calls also run against the per-operation {@link TimeoutBudgets}, so a
+ * stalled request fails after its own budget rather than after the HTTP
+ * client's timeouts.
+ */
+public class BrokerProxy implements InvocationHandler {
+    private static final String CLIENT_PACKAGE = "com.openshift.client";
+
+    // Getters of the client that lazily load resources from the broker
+    private static final Set<String> REMOTE_GETTERS = new HashSet<String>(Arrays.asList(
+            "getUser", "getDomains", "getDefaultDomain", "getDomain",
+            "getApplications", "getApplicationByName", "getStandaloneCartridges",
+            "getEmbeddableCartridges", "getGearGroups", "getEmbeddedCartridges",
+            "getAvailableGearProfiles"));
+
+    // A timed out call can't be interrupted out of its socket read and holds
+    // its thread until the client's socket timeout; bound how many can pile up
+    private static final int POOL_SIZE = 32;
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private static ExecutorService createExecutor() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+                60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                new ExceptionCatchingThreadFactory(new NamingThreadFactory(
+                        new DaemonThreadFactory(), "OpenShift broker call")));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private final Object target;
+    private final CircuitBreaker breaker;
+    private final TimeoutBudgets budgets;
+
+    private BrokerProxy(Object target, CircuitBreaker breaker, TimeoutBudgets budgets) {
+        this.target = target;
+        this.breaker = breaker;
+        this.budgets = budgets;
+    }
+
+    /**
+     * Wraps the given client resource, or each element of a list of them.
+     * Other values are returned as is.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T wrap(T value, CircuitBreaker breaker, TimeoutBudgets budgets) {
+        if (value == null || isWrapped(value))
+            return value;
+        if (value instanceof List) {
+            List<Object> wrapped = new ArrayList<Object>();
+            for (Object element : (List<Object>) value) {
+                wrapped.add(wrap(element, breaker, budgets));
+            }
+            return (T) wrapped;
+        }
+        Class<?>[] interfaces = getClientInterfaces(value.getClass());
+        if (interfaces.length == 0)
+            return value;
+        return (T) Proxy.newProxyInstance(value.getClass().getClassLoader(),
+                interfaces, new BrokerProxy(value, breaker, budgets));
+    }
+
+    /**
+     * Runs the given broker request, giving up waiting for it after the
+     * timeout (in ms). The request itself only ends with the HTTP client's
+     * socket timeout.
+     *
+     * @throws BrokerTimeoutException if the request took too long
+     * @throws BrokerSaturatedException if too many requests are running
+     */
+    public static <T> T call(Callable<T> request, String name, long timeout) throws Exception {
+        Future<T> future;
+        try {
+            future = EXECUTOR.submit(request);
+        } catch (RejectedExecutionException e) {
+            throw new BrokerSaturatedException("Broker request " + name + " rejected, all "
+                    + POOL_SIZE + " broker call threads are busy");
+        }
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new BrokerTimeoutException("Broker request " + name + " timed out after "
+                    + timeout + "ms");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            throw (Error) cause;
+        }
+    }
+
+    public Object invoke(Object proxy, final Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            if (method.getName().equals("equals")) {
+                return target.equals(unwrap(args[0]));
+            }
+            return method.invoke(target, args);
+        }
+
+        final Object[] targetArgs = unwrap(args);
+        if (!isRemote(method)) {
+            try {
+                return wrap(method.invoke(target, targetArgs), breaker, budgets);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        breaker.acquire();
+        Object result;
+        try {
+            result = call(new Callable<Object>() {
+                public Object call() throws Exception {
+                    try {
+                        return method.invoke(target, targetArgs);
+                    } catch (InvocationTargetException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof Error)
+                            throw (Error) cause;
+                        throw (Exception) cause;
+                    }
+                }
+            }, method.getName(), budgets.forBrokerMethod(method.getName()));
+        } catch (Throwable cause) {
+            breaker.recordOutcome(cause);
+            throw cause;
+        }
+        breaker.recordSuccess();
+        return wrap(result, breaker, budgets);
+    }
+
+    private static boolean isRemote(Method method) {
+        String name = method.getName();
+        if (REMOTE_GETTERS.contains(name))
+            return true;
+        return !(name.startsWith("get") || name.startsWith("is")
+                || name.startsWith("has") || name.startsWith("can"));
+    }
+
+    private static boolean isWrapped(Object value) {
+        return Proxy.isProxyClass(value.getClass())
+                && Proxy.getInvocationHandler(value) instanceof BrokerProxy;
+    }
+
+    private static Object unwrap(Object value) {
+        if (value != null && isWrapped(value)) {
+            return ((BrokerProxy) Proxy.getInvocationHandler(value)).target;
+        }
+        return value;
+    }
+
+    private static Object[] unwrap(Object[] args) {
+        if (args == null)
+            return null;
+        Object[] unwrapped = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            unwrapped[i] = unwrap(args[i]);
+        }
+        return unwrapped;
+    }
+
+    /**
+     * Thrown when a broker request exceeds its budget.
+     */
+    public static class BrokerTimeoutException extends OpenShiftException {
+        private static final long serialVersionUID = 1L;
+
+        public BrokerTimeoutException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Thrown when a broker request can't even be started because all broker
+     * call threads are taken, typically by requests stuck on a slow broker.
+     */
+    public static class BrokerSaturatedException extends CircuitBreaker.BrokerUnavailableException {
+        private static final long serialVersionUID = 1L;
+
+        public BrokerSaturatedException(String message) {
+            super(message);
+        }
+    }
+
+    private static Class<?>[] getClientInterfaces(Class<?> type) {
+        Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            collectClientInterfaces(c.getInterfaces(), interfaces);
+        }
+        return interfaces.toArray(new Class<?>[interfaces.size()]);
+    }
+
+    private static void collectClientInterfaces(Class<?>[] candidates, Collection<Class<?>> interfaces) {
+        for (Class<?> candidate : candidates) {
+            if (candidate.getName().startsWith(CLIENT_PACKAGE)
+                    && Modifier.isPublic(candidate.getModifiers())) {
+                interfaces.add(candidate);
+            }
+            collectClientInterfaces(candidate.getInterfaces(), interfaces);
+        }
+    }
+}
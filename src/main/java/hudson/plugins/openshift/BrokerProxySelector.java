@@ -0,0 +1,72 @@
+package hudson.plugins.openshift;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends requests to the configured brokers through their clouds' HTTP proxy
+ * and leaves every other request to the JVM's own selector. The client
+ * can't be handed a proxy per connection, and the <code>proxyHost</code>
+ * system properties would route all of Jenkins through it.
+ */
+public class BrokerProxySelector extends ProxySelector {
+    private static final Map<String, Proxy> ROUTES = new ConcurrentHashMap<String, Proxy>();
+
+    private final ProxySelector delegate;
+
+    BrokerProxySelector(ProxySelector delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Installs the selector in front of the JVM's default one, unless it
+     * already is.
+     */
+    public static synchronized void install() {
+        ProxySelector current = ProxySelector.getDefault();
+        if (!(current instanceof BrokerProxySelector)) {
+            ProxySelector.setDefault(new BrokerProxySelector(current));
+        }
+    }
+
+    /**
+     * Routes requests to the given broker host through the given proxy, or
+     * directly if the proxy host is empty.
+     */
+    public static void route(String brokerHost, String proxyHost, int proxyPort) {
+        if (brokerHost == null)
+            return;
+        String host = brokerHost.trim().toLowerCase();
+        if (proxyHost == null || proxyHost.trim().length() == 0) {
+            ROUTES.remove(host);
+        } else {
+            ROUTES.put(host, new Proxy(Proxy.Type.HTTP,
+                    InetSocketAddress.createUnresolved(proxyHost.trim(), proxyPort)));
+        }
+    }
+
+    @Override
+    public List<Proxy> select(URI uri) {
+        Proxy proxy = uri.getHost() == null ? null : ROUTES.get(uri.getHost().toLowerCase());
+        if (proxy != null)
+            return Collections.singletonList(proxy);
+        if (delegate != null)
+            return delegate.select(uri);
+        return Collections.singletonList(Proxy.NO_PROXY);
+    }
+
+    @Override
+    public void connectFailed(URI uri, SocketAddress address, IOException e) {
+        if (delegate != null) {
+            delegate.connectFailed(uri, address, e);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package hudson.plugins.openshift;
+
+import com.openshift.client.OpenShiftException;
+
+/**
+ * Thrown when a builder can't be provisioned as configured, e.g. because its
+ * cartridge or the application it clones doesn't exist. Retrying won't help.
+ */
+public class BuilderConfigurationException extends OpenShiftException {
+    private static final long serialVersionUID = 1L;
+
+    public BuilderConfigurationException(String message) {
+        super(message);
+    }
+}
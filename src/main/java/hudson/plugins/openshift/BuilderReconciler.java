@@ -0,0 +1,138 @@
+package hudson.plugins.openshift;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the Jenkins nodes in line with the builder applications on the
+ * broker, off the provisioning path.
+ * <p/>
+ * The first pass after startup adopts builders Jenkins doesn't know yet, e.g.
+ * ones left from before a restart; later passes hand them to the
+ * {@link TerminationService} as orphans. Each pass removes idle nodes whose
+ * application is gone, touching the node list only for what changed.
+ * Provisioning reads the builders found by the last pass.
+ */
+public class BuilderReconciler {
+    private static final Logger LOGGER = Logger
+            .getLogger(BuilderReconciler.class.getName());
+
+    private volatile OpenShiftCloud cloud;
+    private volatile List<OpenShiftSlave> snapshot;
+    private boolean adopted;
+
+    public BuilderReconciler(OpenShiftCloud cloud) {
+        this.cloud = cloud;
+    }
+
+    /**
+     * Hands this over to the cloud that replaced its own when the
+     * configuration was saved.
+     */
+    void setCloud(OpenShiftCloud cloud) {
+        this.cloud = cloud;
+    }
+
+    /**
+     * Returns the builders found by the last pass, running a first pass if
+     * there was none yet.
+     */
+    public List<OpenShiftSlave> getSnapshot() throws IOException {
+        List<OpenShiftSlave> current = snapshot;
+        if (current == null) {
+            current = reconcile();
+        }
+        return current;
+    }
+
+    /**
+     * Diffs the builders on the broker against the Jenkins nodes and applies
+     * the difference.
+     */
+    public synchronized List<OpenShiftSlave> reconcile() throws IOException {
+        Hudson hudson = Hudson.getInstance();
+        List<OpenShiftSlave> builders = cloud.getSlaves();
+
+        Set<String> names = new HashSet<String>();
+        List<String> orphans = new ArrayList<String>();
+        int added = 0;
+        for (OpenShiftSlave builder : builders) {
+            names.add(builder.getNodeName());
+            if (hudson.getNode(builder.getNodeName()) == null) {
+                if (adopted) {
+                    orphans.add(builder.getNodeName());
+                } else {
+                    LOGGER.info("Adopting builder " + builder.getNodeName());
+                    hudson.addNode(builder);
+                    added++;
+                }
+            }
+        }
+        adopted = true;
+        cloud.getTerminationService().collectOrphans(orphans);
+
+        int removed = 0;
+        for (Node node : hudson.getNodes()) {
+            // Builders still being provisioned may not be listed yet
+            if (!(node instanceof OpenShiftSlave) || names.contains(node.getNodeName())
+                    || cloud.getWarmPool().contains(node.getNodeName())
+                    || ProvisioningPipeline.isInFlight(node.getNodeName()))
+                continue;
+            Computer computer = node.toComputer();
+            if (computer == null || computer.isIdle()) {
+                LOGGER.info("Removing builder " + node.getNodeName()
+                        + " whose application no longer exists");
+                hudson.removeNode(node);
+                removed++;
+            }
+        }
+
+        if (added > 0 || removed > 0) {
+            LOGGER.info("Reconciled builders: " + added + " added, " + removed + " removed");
+        }
+        snapshot = Collections.unmodifiableList(new ArrayList<OpenShiftSlave>(builders));
+        return snapshot;
+    }
+
+    /**
+     * Runs a reconciliation pass every minute.
+     */
+    @Extension
+    public static class Task extends AsyncPeriodicWork {
+        public Task() {
+            super("OpenShift builder reconciler");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return MIN;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws IOException,
+                InterruptedException {
+            OpenShiftCloud cloud = OpenShiftCloud.get();
+            if (cloud == null)
+                return;
+            try {
+                cloud.getBuilderReconciler().reconcile();
+            } catch (Exception e) {
+                cloud.invalidateOnFailure(e);
+                LOGGER.log(Level.WARNING, "Unable to reconcile builders", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package hudson.plugins.openshift;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.AbstractProject;
+import hudson.model.Descriptor.FormException;
+import hudson.model.Hudson;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Describes the builder application a label needs, as derived from the
+ * OpenShift job properties of the job named after the label.
+ * <p/>
+ * Specs are cached per label and dropped whenever the job, or the global
+ * configuration holding the cloud defaults, is saved.
+ */
+public final class BuilderSpec {
+    private static final ConcurrentMap<String, BuilderSpec> CACHE = new ConcurrentHashMap<String, BuilderSpec>();
+
+    private final String label;
+    private final String builderName;
+    private final String applicationUUID;
+    private final String builderType;
+    private final String builderSize;
+    private final String region;
+    private final String builderPlatform;
+    private final long builderTimeout;
+
+    public BuilderSpec(String label, String builderName, String applicationUUID,
+                       String builderType, String builderSize, String region,
+                       String builderPlatform, long builderTimeout) {
+        this.label = label;
+        this.builderName = builderName;
+        this.applicationUUID = applicationUUID;
+        this.builderType = builderType;
+        this.builderSize = builderSize;
+        this.region = region;
+        this.builderPlatform = builderPlatform;
+        this.builderTimeout = builderTimeout;
+    }
+
+    /**
+     * Returns the builder spec for the given label, deriving it from the job
+     * properties on first use. Labels without a matching job get the raw
+     * builder defaults.
+     */
+    public static BuilderSpec forLabel(String labelStr, String defaultBuilderSize) {
+        BuilderSpec spec = CACHE.get(labelStr);
+        if (spec == null) {
+            spec = derive(labelStr, defaultBuilderSize);
+            CACHE.put(labelStr, spec);
+        }
+        return spec;
+    }
+
+    /**
+     * Drops the cached spec of the given label.
+     */
+    public static void invalidate(String labelStr) {
+        CACHE.remove(labelStr);
+    }
+
+    /**
+     * Drops all cached specs.
+     */
+    public static void invalidateAll() {
+        CACHE.clear();
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static BuilderSpec derive(String labelStr, String defaultBuilderSize) {
+        String applicationUUID = null;
+        String builderType = "diy-0.1";
+        String builderName = "raw" + OpenShiftCloud.APP_NAME_BUILDER_EXTENSION;
+        String builderSize = defaultBuilderSize;
+        String region = null;
+        String builderPlatform = OpenShiftCloud.DEFAULT_PLATFORM;
+        long builderTimeout = OpenShiftCloud.DEFAULT_TIMEOUT;
+
+        AbstractProject job = Hudson.getInstance().getItemByFullName(
+                labelStr, AbstractProject.class);
+        if (job != null) {
+            OpenShiftBuilderSizeJobProperty osbsjp = ((OpenShiftBuilderSizeJobProperty) job
+                    .getProperty(OpenShiftBuilderSizeJobProperty.class));
+            if (osbsjp != null) {
+                builderSize = osbsjp.builderSize;
+            }
+
+            OpenShiftRegionJobProperty osrjp = ((OpenShiftRegionJobProperty) job
+                    .getProperty(OpenShiftRegionJobProperty.class));
+            region = osrjp==null?null:osrjp.region;
+
+            OpenShiftApplicationUUIDJobProperty osappuidjp = ((OpenShiftApplicationUUIDJobProperty) job
+                    .getProperty(OpenShiftApplicationUUIDJobProperty.class));
+            applicationUUID = osappuidjp==null?null:osappuidjp.applicationUUID;
+
+            OpenShiftBuilderTypeJobProperty osbtjp = ((OpenShiftBuilderTypeJobProperty) job
+                    .getProperty(OpenShiftBuilderTypeJobProperty.class));
+            if (osbtjp != null) {
+                builderType = osbtjp.builderType;
+            }
+
+            OpenShiftPlatformJobProperty ospjp = ((OpenShiftPlatformJobProperty) job
+                    .getProperty(OpenShiftPlatformJobProperty.class));
+            if(ospjp!=null) {
+                builderPlatform = ospjp.platform;
+            }
+
+            OpenShiftBuilderTimeoutJobProperty timeoutJobProperty = ((OpenShiftBuilderTimeoutJobProperty) job
+                    .getProperty(OpenShiftBuilderTimeoutJobProperty.class));
+            if (timeoutJobProperty != null)
+                builderTimeout = timeoutJobProperty.builderTimeout;
+            else
+                builderTimeout = -1;
+
+            if (labelStr.endsWith("-build")) {
+                builderName = labelStr.substring(0,
+                        labelStr.indexOf("-build"));
+            }
+
+            int maxLength = OpenShiftCloud.APP_NAME_MAX_LENGTH
+                    - OpenShiftCloud.APP_NAME_BUILDER_EXTENSION.length();
+            if (builderName.length() > maxLength) {
+                builderName = builderName.substring(0, maxLength);
+            }
+            builderName = builderName + OpenShiftCloud.APP_NAME_BUILDER_EXTENSION;
+        }
+
+        return new BuilderSpec(labelStr, builderName, applicationUUID, builderType,
+                builderSize, region, builderPlatform, builderTimeout);
+    }
+
+    /**
+     * Creates a (not yet provisioned) builder slave following this spec.
+     */
+    public OpenShiftSlave newSlave(String name, int executors, int slaveIdleTimeToLive)
+            throws FormException, IOException {
+        return new OpenShiftSlave(name, applicationUUID, builderType, builderSize,
+                region, builderPlatform, label, builderTimeout, executors,
+                slaveIdleTimeToLive);
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public String getBuilderName() {
+        return builderName;
+    }
+
+    public String getApplicationUUID() {
+        return applicationUUID;
+    }
+
+    public String getBuilderType() {
+        return builderType;
+    }
+
+    public String getBuilderSize() {
+        return builderSize;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public String getBuilderPlatform() {
+        return builderPlatform;
+    }
+
+    public long getBuilderTimeout() {
+        return builderTimeout;
+    }
+
+    /**
+     * Returns how many gears a builder following this spec takes.
+     */
+    public int getGears() {
+        return OpenShiftSlave.getGears(builderPlatform);
+    }
+
+    /**
+     * Drops cached specs when a job or the global configuration is saved.
+     */
+    @Extension
+    public static class SaveInvalidator extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Job) {
+                invalidate(((Job<?, ?>) o).getFullName());
+            } else if (o instanceof Jenkins) {
+                invalidateAll();
+            }
+        }
+    }
+
+    /**
+     * Drops cached specs when a job is created, renamed, moved, updated or
+     * deleted.
+     */
+    @Extension
+    public static class ItemInvalidator extends ItemListener {
+        @Override
+        public void onCreated(Item item) {
+            // The label may have been resolved to the raw defaults before
+            invalidate(item.getFullName());
+        }
+
+        @Override
+        public void onUpdated(Item item) {
+            invalidate(item.getFullName());
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            invalidate(item.getFullName());
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            // Specs are keyed by full name, which a rename inside a folder
+            // or a move changes
+            invalidate(oldFullName);
+            invalidate(newFullName);
+        }
+    }
+}
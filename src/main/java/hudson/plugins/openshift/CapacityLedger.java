@@ -0,0 +1,221 @@
+package hudson.plugins.openshift;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.openshift.client.IUser;
+import com.openshift.client.OpenShiftException;
+
+/**
+ * Tracks the account's gear quota locally so concurrent provisioning rounds
+ * can't all see the same free gear.
+ * <p/>
+ * Gears are reserved before an application is created, committed once it
+ * exists and released if creation fails. The counts are reconciled with the
+ * broker periodically, and only a reconcile lowers the consumed gears: a
+ * destroyed builder marks the ledger stale, so its gears are counted as free
+ * once the broker reports them free, and never twice.
+ */
+public class CapacityLedger {
+    private static final Logger LOGGER = Logger
+            .getLogger(CapacityLedger.class.getName());
+
+    private static final long RECONCILE_INTERVAL = 60 * 1000;
+
+    private volatile OpenShiftCloud cloud;
+    // Serializes reconciles; the ledger's own lock is never held across a
+    // broker call
+    private final Object reconcileLock = new Object();
+    private long maxGears;
+    private long consumedGears;
+    private long reserved;
+    private long lastReconcile;
+    private boolean reconciling;
+    private long committedWhileReconciling;
+
+    public CapacityLedger(OpenShiftCloud cloud) {
+        this.cloud = cloud;
+    }
+
+    /**
+     * Hands this over to the cloud that replaced its own when the
+     * configuration was saved.
+     */
+    void setCloud(OpenShiftCloud cloud) {
+        this.cloud = cloud;
+    }
+
+    /**
+     * Reserves the given number of gears if the quota allows it.
+     *
+     * @return whether the gears were reserved
+     */
+    public boolean reserve(int gears) throws IOException {
+        reconcileIfStale();
+        synchronized (this) {
+            if (consumedGears + reserved + gears > maxGears) {
+                LOGGER.info("No capacity remaining (" + consumedGears + " consumed and "
+                        + reserved + " reserved of " + maxGears + " gears).");
+                return false;
+            }
+            reserved += gears;
+            LOGGER.info("Reserved " + gears + " gears (" + consumedGears + " consumed and "
+                    + reserved + " reserved of " + maxGears + " gears).");
+            return true;
+        }
+    }
+
+    /**
+     * Turns reserved gears into consumed ones after a successful creation.
+     */
+    public synchronized void commit(int gears) {
+        reserved = Math.max(0, reserved - gears);
+        consumedGears += gears;
+        if (reconciling) {
+            committedWhileReconciling += gears;
+        }
+    }
+
+    /**
+     * Gives back reserved gears after a failed creation.
+     */
+    public synchronized void release(int gears) {
+        reserved = Math.max(0, reserved - gears);
+    }
+
+    /**
+     * Records that a builder was destroyed. Its gears count as free from the
+     * next reconcile on, which the next reservation runs.
+     */
+    public synchronized void free() {
+        lastReconcile = 0;
+    }
+
+    /**
+     * Returns how many gears are neither consumed nor reserved.
+     */
+    public long getAvailable() throws IOException {
+        reconcileIfStale();
+        synchronized (this) {
+            return Math.max(0, maxGears - consumedGears - reserved);
+        }
+    }
+
+    /**
+     * Reloads the quota from the broker and returns whether all gears are
+     * consumed, not counting reservations.
+     */
+    public boolean isExhausted() throws IOException {
+        reconcile();
+        synchronized (this) {
+            return consumedGears >= maxGears;
+        }
+    }
+
+    private synchronized boolean isStale() {
+        return System.currentTimeMillis() - lastReconcile > RECONCILE_INTERVAL;
+    }
+
+    private void reconcileIfStale() throws IOException {
+        if (!isStale())
+            return;
+        synchronized (reconcileLock) {
+            // Another caller may have reconciled while this one waited
+            if (isStale()) {
+                reconcile();
+            }
+        }
+    }
+
+    /**
+     * Reloads the quota and consumption from the broker, keeping the
+     * reservations of creations still in flight. Counts are swapped in once
+     * the broker answered, so commits and releases don't wait for it.
+     */
+    public void reconcile() throws IOException {
+        synchronized (reconcileLock) {
+            synchronized (this) {
+                reconciling = true;
+                committedWhileReconciling = 0;
+            }
+            try {
+                IUser user = cloud.getOpenShiftConnection().getUser();
+                user.refresh();
+                long max = user.getMaxGears();
+                long consumed = user.getConsumedGears();
+                synchronized (this) {
+                    maxGears = max;
+                    // The broker may have answered before seeing creations
+                    // committed meanwhile; count them until the next reconcile
+                    consumedGears = consumed + committedWhileReconciling;
+                    lastReconcile = System.currentTimeMillis();
+                    LOGGER.fine("User has consumed " + consumedGears + " of " + maxGears
+                            + " gears, " + reserved + " reserved.");
+                }
+            } finally {
+                synchronized (this) {
+                    reconciling = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Thrown when a gear is about to be freed for a builder that couldn't get
+     * one, so the provisioning round is retried instead of given up.
+     */
+    public static class CapacityPendingException extends OpenShiftException {
+        private static final long serialVersionUID = 1L;
+
+        public CapacityPendingException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Thrown when the broker refused to create an application because the
+     * account has no gears left.
+     */
+    public static class QuotaExceededException extends OpenShiftException {
+        private static final long serialVersionUID = 1L;
+
+        public QuotaExceededException(String message, Throwable cause) {
+            super(message);
+            initCause(cause);
+        }
+    }
+
+    /**
+     * Reconciles the ledger with the broker in the background.
+     */
+    @Extension
+    public static class Reconciler extends AsyncPeriodicWork {
+        public Reconciler() {
+            super("OpenShift capacity reconciler");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return RECONCILE_INTERVAL;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws IOException,
+                InterruptedException {
+            OpenShiftCloud cloud = OpenShiftCloud.get();
+            if (cloud == null)
+                return;
+            try {
+                cloud.getCapacityLedger().reconcile();
+            } catch (Exception e) {
+                cloud.invalidateOnFailure(e);
+                LOGGER.log(Level.WARNING, "Unable to reconcile gear capacity", e);
+            }
+        }
+    }
+}
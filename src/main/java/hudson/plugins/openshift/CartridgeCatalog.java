@@ -0,0 +1,108 @@
+package hudson.plugins.openshift;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import com.openshift.client.IDomain;
+import com.openshift.client.IGearProfile;
+import com.openshift.client.OpenShiftException;
+import com.openshift.client.cartridge.IStandaloneCartridge;
+
+/**
+ * Caches the broker's standalone cartridges and the gear profiles of each
+ * domain, keyed by name, and refreshes them once they are older than the
+ * time to live.
+ */
+public class CartridgeCatalog {
+    private static final Logger LOGGER = Logger
+            .getLogger(CartridgeCatalog.class.getName());
+
+    private final OpenShiftCloud cloud;
+    private final long timeToLive;
+
+    private volatile Map<String, IStandaloneCartridge> cartridges;
+    private volatile long cartridgesLoaded;
+    private final ConcurrentMap<String, Profiles> gearProfiles = new ConcurrentHashMap<String, Profiles>();
+
+    public CartridgeCatalog(OpenShiftCloud cloud, long timeToLive) {
+        this.cloud = cloud;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Returns the standalone cartridge with the given name.
+     *
+     * @throws BuilderConfigurationException if the broker doesn't offer it
+     */
+    public IStandaloneCartridge getStandaloneCartridge(String name)
+            throws IOException, OpenShiftException {
+        Map<String, IStandaloneCartridge> current = cartridges;
+        if (current == null || isExpired(cartridgesLoaded)) {
+            current = loadCartridges();
+        }
+        IStandaloneCartridge cartridge = current.get(name);
+        if (cartridge == null) {
+            throw new BuilderConfigurationException("Cartridge for " + name + " not found");
+        }
+        return cartridge;
+    }
+
+    /**
+     * Returns the gear profile with the given name available in the domain,
+     * or the domain's first profile if there is none by that name.
+     */
+    public IGearProfile getGearProfile(IDomain domain, String name) {
+        Profiles profiles = gearProfiles.get(domain.getId());
+        if (profiles == null || isExpired(profiles.loaded)) {
+            profiles = new Profiles(domain.getAvailableGearProfiles());
+            gearProfiles.put(domain.getId(), profiles);
+        }
+        IGearProfile profile = profiles.byName.get(name);
+        return profile != null ? profile : profiles.first;
+    }
+
+    /**
+     * Forces the next lookups to reload from the broker.
+     */
+    public void invalidate() {
+        cartridges = null;
+        gearProfiles.clear();
+    }
+
+    private synchronized Map<String, IStandaloneCartridge> loadCartridges()
+            throws IOException {
+        if (cartridges != null && !isExpired(cartridgesLoaded))
+            return cartridges;
+
+        Map<String, IStandaloneCartridge> loaded = new ConcurrentHashMap<String, IStandaloneCartridge>();
+        for (IStandaloneCartridge cartridge : cloud.getOpenShiftConnection().getStandaloneCartridges()) {
+            loaded.put(cartridge.getName(), cartridge);
+        }
+        LOGGER.info("Loaded " + loaded.size() + " standalone cartridges");
+        cartridges = loaded;
+        cartridgesLoaded = System.currentTimeMillis();
+        return loaded;
+    }
+
+    private boolean isExpired(long loaded) {
+        return System.currentTimeMillis() - loaded > timeToLive;
+    }
+
+    private static class Profiles {
+        private final Map<String, IGearProfile> byName = new LinkedHashMap<String, IGearProfile>();
+        private final IGearProfile first;
+        private final long loaded = System.currentTimeMillis();
+
+        Profiles(List<IGearProfile> profiles) {
+            for (IGearProfile profile : profiles) {
+                byName.put(profile.getName(), profile);
+            }
+            first = profiles.isEmpty() ? null : profiles.get(0);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package hudson.plugins.openshift;
+
+import java.util.logging.Logger;
+
+import com.openshift.client.OpenShiftException;
+
+/**
+ * Stops calling the broker once it keeps failing, so a broker outage makes
+ * callers fail fast instead of each of them waiting out its timeouts.
+ * <p/>
+ * The breaker opens after the given number of consecutive failures. Once the
+ * reset timeout has passed it lets a single call through (half-open); that
+ * call closes the breaker if it succeeds and reopens it otherwise.
+ */
+public class CircuitBreaker {
+    private static final Logger LOGGER = Logger
+            .getLogger(CircuitBreaker.class.getName());
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long resetTimeout;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    /**
+     * @param failureThreshold consecutive failures after which the breaker opens
+     * @param resetTimeout how long (in ms) the breaker stays open before a trial call
+     */
+    public CircuitBreaker(int failureThreshold, long resetTimeout) {
+        this.failureThreshold = failureThreshold;
+        this.resetTimeout = resetTimeout;
+    }
+
+    /**
+     * Asks for permission to call the broker.
+     *
+     * @throws BrokerUnavailableException if the breaker is open
+     */
+    public synchronized void acquire() throws BrokerUnavailableException {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= resetTimeout) {
+            LOGGER.info("Broker circuit half-open, letting a trial call through");
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.OPEN || (state == State.HALF_OPEN && trialInFlight)) {
+            throw new BrokerUnavailableException("Broker circuit is " + state
+                    + " after " + failures + " consecutive failures");
+        }
+        if (state == State.HALF_OPEN) {
+            trialInFlight = true;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            LOGGER.info("Broker call succeeded, closing circuit");
+        }
+        state = State.CLOSED;
+        failures = 0;
+        trialInFlight = false;
+    }
+
+    /**
+     * Settles a call that failed with the given exception. Broker and network
+     * faults count against the broker; other failures mean the broker
+     * answered and count as a success. Calls rejected before reaching the
+     * broker count as neither.
+     */
+    public void recordOutcome(Throwable failure) {
+        if (isRejection(failure)) {
+            release();
+        } else if (RetryPolicy.classify(failure).isRetryable()) {
+            recordFailure(failure);
+        } else {
+            recordSuccess();
+        }
+    }
+
+    /**
+     * Ends a call without an outcome, so a half-open breaker lets the next
+     * trial through.
+     */
+    public synchronized void release() {
+        trialInFlight = false;
+    }
+
+    public synchronized void recordFailure(Throwable failure) {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            if (state != State.OPEN) {
+                LOGGER.warning("Opening broker circuit for " + resetTimeout + "ms after "
+                        + failures + " consecutive failures, last: " + failure);
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            trialInFlight = false;
+        }
+    }
+
+    /**
+     * Returns the current state, without letting a trial call through.
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= resetTimeout) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * Returns whether calls are currently being rejected, i.e. the breaker is
+     * open or half-open with its trial call still running.
+     */
+    public synchronized boolean isOpen() {
+        State current = getState();
+        return current == State.OPEN || (current == State.HALF_OPEN && trialInFlight);
+    }
+
+    /**
+     * Returns whether the given failure is a call rejected without asking the
+     * broker, which says nothing about what was being provisioned.
+     */
+    public static boolean isRejection(Throwable failure) {
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof BrokerUnavailableException)
+                return true;
+        }
+        return false;
+    }
+
+    public synchronized int getFailures() {
+        return failures;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public long getResetTimeout() {
+        return resetTimeout;
+    }
+
+    /**
+     * Thrown instead of calling the broker while the circuit is open.
+     */
+    public static class BrokerUnavailableException extends OpenShiftException {
+        private static final long serialVersionUID = 1L;
+
+        public BrokerUnavailableException(String message) {
+            super(message);
+        }
+    }
+}
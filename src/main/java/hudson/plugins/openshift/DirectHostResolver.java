@@ -0,0 +1,268 @@
+package hudson.plugins.openshift;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Resolves builder host names with a direct DNS query instead of the JVM's
+ * name service, so a negative answer cached by the JVM while a new gear's
+ * record was still propagating can't hide it.
+ * <p/>
+ * Positive answers are cached per host for the TTL of the record. If no name
+ * server can be reached the JVM's name service is used as a fallback.
+ * <p/>
+ * The name servers come from <code>/etc/resolv.conf</code> unless the
+ * <code>hudson.plugins.openshift.DirectHostResolver.nameServers</code> system
+ * property lists others (comma separated), e.g. the authoritative servers of
+ * the builder domain to avoid negative caching by recursive resolvers.
+ */
+public class DirectHostResolver implements HostResolver {
+    private static final Logger LOGGER = Logger
+            .getLogger(DirectHostResolver.class.getName());
+
+    private static final String RESOLV_CONF = "/etc/resolv.conf";
+    private static final String NAME_SERVERS_PROPERTY = DirectHostResolver.class.getName() + ".nameServers";
+    private static final int DNS_PORT = 53;
+    private static final int QUERY_TIMEOUT = 2000;
+    private static final int TYPE_A = 1;
+    private static final int CLASS_IN = 1;
+    private static final int RCODE_NXDOMAIN = 3;
+    private static final int FLAG_TC = 0x0200;
+    // Without EDNS a UDP answer is at most 512 bytes, larger ones come truncated
+    private static final int MAX_UDP_RESPONSE = 512;
+
+    private final List<InetAddress> nameServers;
+    private final int port;
+    private final ConcurrentMap<String, CachedAddress> cache = new ConcurrentHashMap<String, CachedAddress>();
+    private final Random random = new Random();
+
+    public DirectHostResolver() {
+        this(readNameServers());
+    }
+
+    public DirectHostResolver(List<InetAddress> nameServers) {
+        this(nameServers, DNS_PORT);
+    }
+
+    /**
+     * Queries the name servers on the given port instead of the DNS port,
+     * e.g. a stub name server in tests.
+     */
+    DirectHostResolver(List<InetAddress> nameServers, int port) {
+        this.nameServers = nameServers;
+        this.port = port;
+    }
+
+    public InetAddress resolve(String hostname) throws UnknownHostException {
+        CachedAddress cached = cache.get(hostname);
+        if (cached != null) {
+            if (cached.expires > System.currentTimeMillis())
+                return cached.address;
+            cache.remove(hostname, cached);
+        }
+
+        for (InetAddress nameServer : nameServers) {
+            try {
+                CachedAddress answer = query(nameServer, hostname);
+                cache.put(hostname, answer);
+                return answer.address;
+            } catch (UnknownHostException e) {
+                throw e;
+            } catch (TruncatedResponseException e) {
+                // The answer doesn't fit a UDP response; the JVM resolver
+                // can retry over TCP
+                LOGGER.fine("Truncated answer for " + hostname + ", using the JVM resolver");
+                return InetAddress.getByName(hostname);
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Name server " + nameServer + " failed for " + hostname, e);
+            }
+        }
+
+        LOGGER.fine("No name server answered for " + hostname + ", using the JVM resolver");
+        return InetAddress.getByName(hostname);
+    }
+
+    private CachedAddress query(InetAddress nameServer, String hostname)
+            throws IOException {
+        int id = random.nextInt(0x10000);
+        byte[] request = buildQuery(id, hostname);
+
+        DatagramSocket socket = new DatagramSocket();
+        try {
+            socket.setSoTimeout(QUERY_TIMEOUT);
+            socket.send(new DatagramPacket(request, request.length,
+                    new InetSocketAddress(nameServer, port)));
+            byte[] buffer = new byte[MAX_UDP_RESPONSE];
+            DatagramPacket response = new DatagramPacket(buffer, buffer.length);
+            while (true) {
+                socket.receive(response);
+                if (response.getLength() >= 12 && readShort(buffer, 0) == id)
+                    break;
+            }
+            return parseResponse(hostname, buffer, response.getLength());
+        } catch (SocketTimeoutException e) {
+            throw new IOException("Timed out querying " + nameServer, e);
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static byte[] buildQuery(int id, String hostname) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeShort(out, id);
+        writeShort(out, 0x0100); // standard query, recursion desired
+        writeShort(out, 1);      // one question
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        for (String label : hostname.split("\\.")) {
+            byte[] bytes = label.getBytes("US-ASCII");
+            if (bytes.length == 0 || bytes.length > 63)
+                throw new UnknownHostException(hostname);
+            out.write(bytes.length);
+            out.write(bytes);
+        }
+        out.write(0);
+        writeShort(out, TYPE_A);
+        writeShort(out, CLASS_IN);
+        return out.toByteArray();
+    }
+
+    private static CachedAddress parseResponse(String hostname, byte[] data, int length)
+            throws IOException {
+        int flags = readShort(data, 2);
+        if ((flags & FLAG_TC) != 0)
+            throw new TruncatedResponseException(hostname);
+        int rcode = flags & 0x0F;
+        if (rcode == RCODE_NXDOMAIN)
+            throw new UnknownHostException(hostname);
+        if (rcode != 0)
+            throw new IOException("Name server returned rcode " + rcode + " for " + hostname);
+
+        int questions = readShort(data, 4);
+        int answers = readShort(data, 6);
+        int pos = 12;
+        for (int i = 0; i < questions; i++) {
+            pos = skipName(data, pos, length) + 4;
+        }
+
+        // Take the first A record; recursive servers put the records of a
+        // CNAME chain ahead of it. The lowest TTL seen on the way is kept.
+        long ttl = Long.MAX_VALUE;
+        for (int i = 0; i < answers; i++) {
+            pos = skipName(data, pos, length);
+            if (pos + 10 > length)
+                break;
+            int type = readShort(data, pos);
+            int clazz = readShort(data, pos + 2);
+            long recordTtl = ((long) readShort(data, pos + 4) << 16) | readShort(data, pos + 6);
+            int rdLength = readShort(data, pos + 8);
+            pos += 10;
+            if (pos + rdLength > length)
+                break;
+            ttl = Math.min(ttl, recordTtl);
+            if (type == TYPE_A && clazz == CLASS_IN && rdLength == 4) {
+                byte[] address = new byte[4];
+                System.arraycopy(data, pos, address, 0, 4);
+                return new CachedAddress(InetAddress.getByAddress(hostname, address),
+                        System.currentTimeMillis() + ttl * 1000L);
+            }
+            pos += rdLength;
+        }
+        throw new UnknownHostException(hostname);
+    }
+
+    private static int skipName(byte[] data, int pos, int length) throws IOException {
+        while (pos < length) {
+            int len = data[pos] & 0xFF;
+            if (len == 0)
+                return pos + 1;
+            if ((len & 0xC0) == 0xC0)
+                return pos + 2; // compression pointer ends the name
+            pos += len + 1;
+        }
+        throw new IOException("Truncated DNS response");
+    }
+
+    private static int readShort(byte[] data, int pos) {
+        return ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write((value >> 8) & 0xFF);
+        out.write(value & 0xFF);
+    }
+
+    private static List<InetAddress> readNameServers() {
+        List<InetAddress> servers = new ArrayList<InetAddress>();
+        String configured = System.getProperty(NAME_SERVERS_PROPERTY);
+        if (configured != null && configured.trim().length() > 0) {
+            for (String server : configured.trim().split("\\s*,\\s*")) {
+                try {
+                    servers.add(InetAddress.getByName(server));
+                } catch (UnknownHostException e) {
+                    LOGGER.warning("Ignoring unknown name server " + server);
+                }
+            }
+            return servers;
+        }
+
+        File file = new File(RESOLV_CONF);
+        if (!file.exists())
+            return servers;
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] tokens = line.trim().split("\\s+");
+                    if (tokens.length >= 2 && tokens[0].equals("nameserver")) {
+                        servers.add(InetAddress.getByName(tokens[1]));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to read " + RESOLV_CONF, e);
+        }
+        return servers;
+    }
+
+    /**
+     * Thrown for answers with the truncation bit set.
+     */
+    private static class TruncatedResponseException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        TruncatedResponseException(String hostname) {
+            super("Truncated DNS response for " + hostname);
+        }
+    }
+
+    private static class CachedAddress {
+        private final InetAddress address;
+        private final long expires;
+
+        CachedAddress(InetAddress address, long expires) {
+            this.address = address;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package hudson.plugins.openshift;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * Waits for a builder host name to become resolvable, probing with
+ * exponential backoff and jitter instead of a fixed delay.
+ */
+public class DnsReadinessProbe {
+    private static final Logger LOGGER = Logger
+            .getLogger(DnsReadinessProbe.class.getName());
+
+    private static final long INITIAL_DELAY = 500;
+    private static final long MAX_DELAY = 10000;
+
+    private static final LatencyHistogram ATTEMPT_LATENCIES = new LatencyHistogram();
+    private static volatile HostResolver resolver = new DirectHostResolver();
+
+    private final Random random = new Random();
+
+    /**
+     * Returns the resolver used for builder host names. It bypasses the JVM's
+     * DNS cache by default.
+     */
+    public static HostResolver getResolver() {
+        return resolver;
+    }
+
+    /**
+     * Replaces the resolver used for builder host names, e.g. with a stub.
+     */
+    public static void setResolver(HostResolver resolver) {
+        DnsReadinessProbe.resolver = resolver;
+    }
+
+    /**
+     * Returns the latencies of the individual resolution attempts made so far.
+     */
+    public static LatencyHistogram getAttemptLatencies() {
+        return ATTEMPT_LATENCIES;
+    }
+
+    /**
+     * Probes until the host name resolves, the timeout (in ms, -1 for none)
+     * expires or {@link #isWanted()} turns false.
+     *
+     * @param delayFirst whether to back off once before the first attempt
+     * @return the resolved address, or null if the probe was no longer wanted
+     * @throws IOException if the host name did not resolve in time
+     */
+    public InetAddress await(String hostname, long timeout, boolean delayFirst)
+            throws IOException {
+        long startTime = System.currentTimeMillis();
+        int attempt = 0;
+
+        if (delayFirst) {
+            sleep(nextDelay(attempt));
+        }
+
+        while (isWanted()) {
+            long elapsed = System.currentTimeMillis() - startTime;
+            if (timeout >= 0 && elapsed >= timeout) {
+                LOGGER.warning("Slave DNS not propagated. Timing out.");
+                throw new IOException("Slave DNS not propagated. Timing out.");
+            }
+
+            attempt++;
+            long attemptStart = System.currentTimeMillis();
+            try {
+                InetAddress address = resolver.resolve(hostname);
+                ATTEMPT_LATENCIES.record(System.currentTimeMillis() - attemptStart);
+                LOGGER.info("Slave DNS resolved - " + address + " after " + attempt
+                        + " attempts in " + (System.currentTimeMillis() - startTime)
+                        + "ms (attempt latencies: " + ATTEMPT_LATENCIES + ")");
+                return address;
+            } catch (UnknownHostException e) {
+                ATTEMPT_LATENCIES.record(System.currentTimeMillis() - attemptStart);
+                long delay = nextDelay(attempt);
+                if (timeout >= 0) {
+                    delay = Math.max(0, Math.min(delay, timeout - (System.currentTimeMillis() - startTime)));
+                }
+                LOGGER.info("Slave DNS for " + hostname + " not propagated yet, retrying in "
+                        + delay + "ms... (timeout: " + timeout + "ms)");
+                sleep(delay);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether probing should go on; by default always.
+     */
+    protected boolean isWanted() {
+        return true;
+    }
+
+    private long nextDelay(int attempt) {
+        long delay = Math.min(MAX_DELAY, INITIAL_DELAY << Math.min(attempt, 16));
+        // Half fixed, half random to spread out probes of parallel builders
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+
+    private void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for DNS");
+        }
+    }
+
+    /**
+     * Resolves through the JVM's name service.
+     */
+    public static class SystemHostResolver implements HostResolver {
+        public InetAddress resolve(String hostname) throws UnknownHostException {
+            return InetAddress.getByName(hostname);
+        }
+    }
+}
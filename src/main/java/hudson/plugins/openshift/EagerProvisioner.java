@@ -0,0 +1,170 @@
+package hudson.plugins.openshift;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+import hudson.slaves.NodeProvisioner.PlannedNode;
+import jenkins.util.Timer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Starts provisioning a builder as soon as an item for an OpenShift job
+ * becomes buildable, instead of waiting for the NodeProvisioner to notice
+ * the load, and cancels it if the item is cancelled before the builder is
+ * there.
+ * <p/>
+ * Only labels named after a job, and without an online or connecting
+ * builder, are provisioned eagerly; everything else is left to the
+ * NodeProvisioner. It doesn't know about the builders planned here, so
+ * {@link OpenShiftCloud} takes them off its workload; both plan under the
+ * same per-label lock.
+ */
+@Extension
+public class EagerProvisioner extends QueueListener {
+    private static final Logger LOGGER = Logger
+            .getLogger(EagerProvisioner.class.getName());
+
+    /**
+     * Queue item ids that builders were eagerly provisioned for, with their
+     * label.
+     */
+    private final ConcurrentMap<Long, String> items = new ConcurrentHashMap<Long, String>();
+
+    /**
+     * Builders planned here by label, until they are online or given up on.
+     */
+    private static final ConcurrentMap<String, List<PlannedNode>> PLANS = new ConcurrentHashMap<String, List<PlannedNode>>();
+
+    @Override
+    public void onEnterBuildable(Queue.BuildableItem item) {
+        final Label label = item.getAssignedLabel();
+        final OpenShiftCloud cloud = OpenShiftCloud.get();
+        if (label == null || cloud == null || !cloud.canProvision(label))
+            return;
+        if (Hudson.getInstance().getItemByFullName(label.getName(), AbstractProject.class) == null)
+            return;
+        if (hasBuilder(label))
+            return;
+
+        // Listeners run under the queue lock, so talk to the broker off it
+        final long id = item.getId();
+        items.put(id, label.getName());
+        Timer.get().submit(new Runnable() {
+            public void run() {
+                if (!items.containsKey(id))
+                    return;
+                BuilderSpec spec = BuilderSpec.forLabel(label.getName(),
+                        cloud.getDefaultBuilderSize());
+                try {
+                    synchronized (cloud.getProvisioningLock(spec)) {
+                        if (hasBuilder(label) || cloud.isProvisioning(spec)) {
+                            items.remove(id);
+                            return;
+                        }
+                        int workload = getBuildableCount(label);
+                        LOGGER.info("Eagerly provisioning a builder for " + label
+                                + " with a workload of " + workload);
+                        Collection<PlannedNode> planned = cloud.provision(label, workload);
+                        if (planned.isEmpty()) {
+                            items.remove(id);
+                        } else {
+                            addPlans(label.getName(), planned);
+                        }
+                    }
+                } catch (Exception e) {
+                    items.remove(id);
+                    LOGGER.log(Level.WARNING, "Eager provisioning for " + label + " failed", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onLeft(Queue.LeftItem item) {
+        String labelStr = items.remove((long) item.getId());
+        if (labelStr == null || !item.isCancelled())
+            return;
+
+        // Another queued item may still need the builder
+        for (Queue.Item queued : Hudson.getInstance().getQueue().getItems()) {
+            Label label = queued.getAssignedLabel();
+            if (label != null && label.getName().equals(labelStr))
+                return;
+        }
+
+        OpenShiftCloud cloud = OpenShiftCloud.get();
+        if (cloud == null)
+            return;
+        BuilderSpec spec = BuilderSpec.forLabel(labelStr, cloud.getDefaultBuilderSize());
+        for (String name : cloud.getBuilderNames(spec)) {
+            ProvisioningPipeline.cancel(name);
+        }
+    }
+
+    /**
+     * Returns how many executors the builders planned here for the given
+     * label will bring, counting only those not online yet.
+     */
+    static int getPlannedExecutors(String labelStr) {
+        List<PlannedNode> plans = PLANS.get(labelStr);
+        if (plans == null)
+            return 0;
+        int executors = 0;
+        synchronized (plans) {
+            for (Iterator<PlannedNode> i = plans.iterator(); i.hasNext(); ) {
+                PlannedNode plan = i.next();
+                if (plan.future.isDone()) {
+                    i.remove();
+                } else {
+                    executors += plan.numExecutors;
+                }
+            }
+        }
+        return executors;
+    }
+
+    private static void addPlans(String labelStr, Collection<PlannedNode> planned) {
+        List<PlannedNode> plans = PLANS.get(labelStr);
+        if (plans == null) {
+            PLANS.putIfAbsent(labelStr, new ArrayList<PlannedNode>());
+            plans = PLANS.get(labelStr);
+        }
+        synchronized (plans) {
+            plans.addAll(planned);
+        }
+    }
+
+    private static int getBuildableCount(Label label) {
+        int count = 0;
+        for (Queue.BuildableItem item : Hudson.getInstance().getQueue().getBuildableItems()) {
+            if (label.equals(item.getAssignedLabel()))
+                count++;
+        }
+        return Math.max(count, 1);
+    }
+
+    /**
+     * Returns whether the label has a builder that is online or coming up.
+     */
+    private static boolean hasBuilder(Label label) {
+        for (Node node : label.getNodes()) {
+            Computer computer = node.toComputer();
+            if (computer != null && (computer.isOnline() || computer.isConnecting()))
+                return true;
+        }
+        return false;
+    }
+}
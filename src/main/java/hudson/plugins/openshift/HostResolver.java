@@ -0,0 +1,12 @@
+package hudson.plugins.openshift;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Resolves builder host names. Implementations can be plugged into
+ * {@link DnsReadinessProbe} to bypass or stub the JVM's name service.
+ */
+public interface HostResolver {
+    InetAddress resolve(String hostname) throws UnknownHostException;
+}
@@ -0,0 +1,74 @@
+package hudson.plugins.openshift;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with fixed millisecond buckets.
+ */
+public class LatencyHistogram {
+    private static final long[] BOUNDS = {1, 5, 10, 25, 50, 100, 250, 500,
+            1000, 2500, 5000, 10000, 30000, 60000, 300000};
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long millis) {
+        int i = 0;
+        while (i < BOUNDS.length && millis > BOUNDS[i]) {
+            i++;
+        }
+        buckets.incrementAndGet(i);
+        count.incrementAndGet();
+        total.addAndGet(millis);
+        long current;
+        while (millis > (current = max.get())) {
+            if (max.compareAndSet(current, millis))
+                break;
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotal() {
+        return total.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : total.get() / n;
+    }
+
+    /**
+     * Returns an upper bound of the given percentile (0-100), i.e. the bucket
+     * boundary below which that share of the samples fall.
+     */
+    public long getPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0)
+            return 0;
+        long rank = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank)
+                return BOUNDS[i];
+        }
+        return max.get();
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " mean=" + getMean() + "ms p50<="
+                + getPercentile(50) + "ms p95<=" + getPercentile(95)
+                + "ms p99<=" + getPercentile(99) + "ms max=" + getMax() + "ms";
+    }
+}
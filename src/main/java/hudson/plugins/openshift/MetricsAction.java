@@ -0,0 +1,35 @@
+package hudson.plugins.openshift;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.RootAction;
+
+import java.io.IOException;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Serves the {@link ProvisioningMetrics} as plain text at
+ * <code>/openshift-metrics/</code> for scraping.
+ */
+@Extension
+public class MetricsAction implements RootAction {
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "OpenShift Provisioning Metrics";
+    }
+
+    public String getUrlName() {
+        return "openshift-metrics";
+    }
+
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Hudson.getInstance().checkPermission(Hudson.READ);
+        rsp.setContentType("text/plain;charset=UTF-8");
+        rsp.getWriter().write(ProvisioningMetrics.get().toText());
+    }
+}
@@ -1,8 +1,6 @@
 package hudson.plugins.openshift;
 
 import hudson.Extension;
-import hudson.model.AbstractProject;
-import hudson.model.Computer;
 import hudson.model.Descriptor;
 import hudson.model.Hudson;
 import hudson.model.Job;
@@ -11,6 +9,8 @@ import hudson.model.Node;
 import hudson.model.Queue;
 import hudson.slaves.Cloud;
 import hudson.slaves.NodeProvisioner.PlannedNode;
+import hudson.util.FormValidation;
+import jenkins.util.Timer;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -18,51 +18,42 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLConnection;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.KeyManager;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSession;
-import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
+import javax.net.ssl.SSLException;
 
 import net.sf.json.JSONObject;
 
-import org.apache.commons.codec.binary.Base64;
-import org.jvnet.hudson.reactor.ReactorException;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
 import com.openshift.client.IApplication;
 import com.openshift.client.IOpenShiftConnection;
 import com.openshift.client.IUser;
-import com.openshift.client.OpenShiftConnectionFactory;
+import com.openshift.client.InvalidCredentialsOpenShiftException;
 import com.openshift.client.OpenShiftException;
 import com.openshift.client.configuration.DefaultConfiguration;
 import com.openshift.client.configuration.SystemConfiguration;
 import com.openshift.client.configuration.UserConfiguration;
-import com.openshift.client.NoopSSLCertificateCallback;
 
 /**
  * Represents the available cloud of OpenShift instances for building.
@@ -75,18 +66,27 @@ public final class OpenShiftCloud extends Cloud {
     public static final String DEFAULT_LABEL = "raw-build";
     public static final String DEFAULT_PLATFORM = "Linux";
     public static final long DEFAULT_TIMEOUT = 300000;
-    private static final int FAILURE_LIMIT = 5;
-    private static final int RETRY_DELAY = 5000;
-
-    private static final int DEFAULT_CONNECT_TIMEOUT = 10 * 1024;
-    private static final int DEFAULT_READ_TIMEOUT = 60 * 1024;
-    private static final String SYSPROP_OPENSHIFT_CONNECT_TIMEOUT = "com.openshift.httpclient.timeout";
-    private static final String SYSPROP_DEFAULT_CONNECT_TIMEOUT = "sun.net.client.defaultConnectTimeout";
-    private static final String SYSPROP_DEFAULT_READ_TIMEOUT = "sun.net.client.defaultReadTimeout";
+    public static final int DEFAULT_MAX_BUILDERS_PER_LABEL = 1;
+    public static final int DEFAULT_CONNECTION_TIME_TO_LIVE = 300;
+    public static final int DEFAULT_APPLICATION_REGISTRY_STALENESS = 60;
+    public static final int DEFAULT_CIRCUIT_BREAKER_THRESHOLD = 5;
+    public static final int DEFAULT_CIRCUIT_BREAKER_RESET_TIMEOUT = 60;
+    public static final int DEFAULT_BROKER_CONNECT_TIMEOUT = 30;
+    public static final int DEFAULT_BROKER_READ_TIMEOUT = 120;
+    public static final int DEFAULT_CREATE_APP_TIMEOUT = 300;
+    public static final int DEFAULT_DNS_TIMEOUT = 300;
+    public static final int DEFAULT_SSH_TIMEOUT = 60;
+    public static final int DEFAULT_PROVISIONING_TIMEOUT = 900;
+    public static final int DEFAULT_HIBERNATION_TIME_TO_LIVE = 120;
+    private static final long CARTRIDGE_CATALOG_TIME_TO_LIVE = 10 * 60 * 1000;
+    private static volatile BrokerConnector brokerConnector = new BrokerConnector.ClientBrokerConnector();
+    private static final Object CIRCUIT_BREAKER_LOCK = new Object();
+    private static final ConcurrentMap<String, Object> PROVISIONING_LOCKS = new ConcurrentHashMap<String, Object>();
+    private static final int PROVISION_RETRY_LIMIT = 5;
+    private static final RetryPolicy PROVISION_RETRIES = new RetryPolicy(
+            PROVISION_RETRY_LIMIT, 2000, 60000);
+
     private static final String SYSPROP_ENABLE_SNI_EXTENSION = "jsse.enableSNIExtension";
-    private static final String SYSPROPERTY_PROXY_PORT = "proxyPort";
-    private static final String SYSPROPERTY_PROXY_HOST = "proxyHost";
-    private static final String SYSPROPERTY_PROXY_SET = "proxySet";
 
     private String username;
     private String password;
@@ -100,10 +100,32 @@ public final class OpenShiftCloud extends Cloud {
     private boolean ignoreBrokerCertCheck = true;
     private int slaveIdleTimeToLive = 15;
     private int maxSlaveIdleTimeToLive = 15;
+    private int maxBuildersPerLabel = DEFAULT_MAX_BUILDERS_PER_LABEL;
+    private int connectionTimeToLive = DEFAULT_CONNECTION_TIME_TO_LIVE;
+    private int applicationRegistryStaleness = DEFAULT_APPLICATION_REGISTRY_STALENESS;
+    private String warmPoolLabels;
+    private int warmPoolSize;
+    private int circuitBreakerThreshold = DEFAULT_CIRCUIT_BREAKER_THRESHOLD;
+    private int circuitBreakerResetTimeout = DEFAULT_CIRCUIT_BREAKER_RESET_TIMEOUT;
+    private int brokerConnectTimeout = DEFAULT_BROKER_CONNECT_TIMEOUT;
+    private int brokerReadTimeout = DEFAULT_BROKER_READ_TIMEOUT;
+    private int createAppTimeout = DEFAULT_CREATE_APP_TIMEOUT;
+    private int dnsTimeout = DEFAULT_DNS_TIMEOUT;
+    private int sshTimeout = DEFAULT_SSH_TIMEOUT;
+    private int provisioningTimeout = DEFAULT_PROVISIONING_TIMEOUT;
+    private int hibernationTimeToLive = DEFAULT_HIBERNATION_TIME_TO_LIVE;
     private transient File privateKey;
     private String brokerAuthKey;
     private String brokerAuthIV;
     private transient IOpenShiftConnection service;
+    private transient long serviceCreated;
+    private transient ApplicationRegistry applicationRegistry;
+    private transient WarmPool warmPool;
+    private transient CartridgeCatalog cartridgeCatalog;
+    private transient CapacityLedger capacityLedger;
+    private transient volatile CircuitBreaker circuitBreaker;
+    private transient BuilderReconciler builderReconciler;
+    private transient TerminationService terminationService;
 
     static {
         javax.net.ssl.HttpsURLConnection
@@ -138,13 +160,28 @@ public final class OpenShiftCloud extends Cloud {
                 slaveIdleTimeToLive, maxSlaveIdleTimeToLive);
         this.defaultBuilderSize = defaultBuilderSize;
         this.ignoreBrokerCertCheck = ignoreBrokerCertCheck;
+        BrokerProxySelector.route(brokerHost, proxyHost, proxyPort);
+    }
+
+    protected Object readResolve() {
+        BrokerProxySelector.route(brokerHost, proxyHost, proxyPort);
+        return this;
     }
 
     private String getNamespace() {
         return System.getenv("OPENSHIFT_NAMESPACE");
     }
 
-    public IOpenShiftConnection getOpenShiftConnection() throws IOException {
+    /**
+     * Returns the shared broker connection, creating it on first use or once
+     * the cached one is older than the configured time to live.
+     */
+    public synchronized IOpenShiftConnection getOpenShiftConnection() throws IOException {
+        if (service != null && System.currentTimeMillis() - serviceCreated
+                > getConnectionTimeToLive() * 1000L) {
+            LOGGER.info("Broker connection expired, reconnecting...");
+            service = null;
+        }
         if (service == null) {
             try {
 
@@ -159,6 +196,7 @@ public final class OpenShiftCloud extends Cloud {
                 String url = null;
                 if (brokerHost == null) {
                     brokerHost = userConfiguration.getLibraServer();
+                    BrokerProxySelector.route(brokerHost, proxyHost, proxyPort);
                     url = "https://" + brokerHost.trim();
 
                     LOGGER.info("Initiating Java Client Service - Configured for default OpenShift Server "
@@ -173,15 +211,41 @@ public final class OpenShiftCloud extends Cloud {
                             + url);
                 }
 
-                service = new OpenShiftConnectionFactory().getConnection(
-                        username, username, password, authKey, authIV, null, url, new NoopSSLCertificateCallback());
-
-
-                if (proxyHost != null && proxyHost.length() > 0) {
-                    System.setProperty(SYSPROPERTY_PROXY_SET, "true");
-                    System.setProperty(SYSPROPERTY_PROXY_HOST, proxyHost.trim());
-                    System.setProperty(SYSPROPERTY_PROXY_PORT, Integer.toString(proxyPort));
+                // The client's own socket timeout is set once at plugin start,
+                // the per-request budgets are enforced by the broker proxy
+                final TimeoutBudgets budgets = getTimeoutBudgets();
+
+                CircuitBreaker breaker = getCircuitBreaker();
+                breaker.acquire();
+                long start = System.currentTimeMillis();
+                IOpenShiftConnection connection;
+                final String brokerUrl = url;
+                // Every acquire must be settled, or a half-open breaker
+                // would wait for its trial call forever
+                boolean settled = false;
+                try {
+                    connection = BrokerProxy.call(new Callable<IOpenShiftConnection>() {
+                        public IOpenShiftConnection call() throws Exception {
+                            return brokerConnector.connect(username, password, authKey, authIV,
+                                    brokerUrl);
+                        }
+                    }, "connect", budgets.getConnect());
+                    breaker.recordSuccess();
+                    settled = true;
+                } catch (Exception e) {
+                    breaker.recordOutcome(e);
+                    settled = true;
+                    if (e instanceof RuntimeException)
+                        throw (RuntimeException) e;
+                    throw new IOException(e);
+                } finally {
+                    if (!settled) {
+                        breaker.release();
+                    }
                 }
+                ProvisioningMetrics.get().recordSince(ProvisioningMetrics.Stage.BROKER_CONNECT, start);
+                service = BrokerProxy.wrap(connection, breaker, budgets);
+                serviceCreated = System.currentTimeMillis();
             } catch (OpenShiftException e) {
                 throw new IOException(e);
             }
@@ -189,6 +253,179 @@ public final class OpenShiftCloud extends Cloud {
         return service;
     }
 
+    /**
+     * Drops the cached broker connection so the next call to
+     * {@link #getOpenShiftConnection()} re-authenticates.
+     */
+    public synchronized void invalidateOpenShiftConnection() {
+        if (service != null) {
+            LOGGER.info("Invalidating broker connection");
+            service = null;
+        }
+        // Indexed applications belong to the old connection
+        if (applicationRegistry != null) {
+            applicationRegistry.invalidate();
+        }
+        if (cartridgeCatalog != null) {
+            cartridgeCatalog.invalidate();
+        }
+    }
+
+    /**
+     * Returns the shared index of broker applications.
+     */
+    public synchronized ApplicationRegistry getApplicationRegistry() {
+        if (applicationRegistry == null) {
+            applicationRegistry = new ApplicationRegistry(this, getNamespace(),
+                    getApplicationRegistryStaleness() * 1000L);
+        }
+        return applicationRegistry;
+    }
+
+    /**
+     * Returns the shared cache of cartridges and gear profiles.
+     */
+    public synchronized CartridgeCatalog getCartridgeCatalog() {
+        if (cartridgeCatalog == null) {
+            cartridgeCatalog = new CartridgeCatalog(this, CARTRIDGE_CATALOG_TIME_TO_LIVE);
+        }
+        return cartridgeCatalog;
+    }
+
+    /**
+     * Returns what broker connections are opened with.
+     */
+    public static BrokerConnector getBrokerConnector() {
+        return brokerConnector;
+    }
+
+    /**
+     * Replaces what broker connections are opened with, e.g. with a fake
+     * broker. Takes effect with the next connection.
+     */
+    public static void setBrokerConnector(BrokerConnector connector) {
+        brokerConnector = connector;
+    }
+
+    /**
+     * Returns the breaker guarding all calls to the broker. Doesn't take the
+     * cloud's lock, so its state can be read while a connect is under way.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        CircuitBreaker breaker = circuitBreaker;
+        if (breaker == null) {
+            synchronized (CIRCUIT_BREAKER_LOCK) {
+                breaker = circuitBreaker;
+                if (breaker == null) {
+                    breaker = new CircuitBreaker(getCircuitBreakerThreshold(),
+                            getCircuitBreakerResetTimeout() * 1000L);
+                    circuitBreaker = breaker;
+                }
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * Returns the reconciler keeping the Jenkins nodes in line with the
+     * builders on the broker.
+     */
+    public synchronized BuilderReconciler getBuilderReconciler() {
+        if (builderReconciler == null) {
+            builderReconciler = new BuilderReconciler(this);
+        }
+        return builderReconciler;
+    }
+
+    /**
+     * Returns the service destroying builder applications.
+     */
+    public synchronized TerminationService getTerminationService() {
+        if (terminationService == null) {
+            terminationService = new TerminationService(this);
+        }
+        return terminationService;
+    }
+
+    /**
+     * Returns the local account of reserved and consumed gears.
+     */
+    public synchronized CapacityLedger getCapacityLedger() {
+        if (capacityLedger == null) {
+            capacityLedger = new CapacityLedger(this);
+        }
+        return capacityLedger;
+    }
+
+    /**
+     * Returns the pool of pre-created builders kept for hot labels.
+     */
+    public synchronized WarmPool getWarmPool() {
+        if (warmPool == null) {
+            warmPool = new WarmPool(this);
+        }
+        return warmPool;
+    }
+
+    /**
+     * Takes over the services of the cloud this one replaces when the
+     * configuration is saved, so the warm pool, the gear reservations, the
+     * destroys under way and the reconciler's state aren't lost. Caches tied
+     * to the old connection and configuration are rebuilt.
+     */
+    synchronized void takeServices(OpenShiftCloud previous) {
+        synchronized (previous) {
+            warmPool = previous.warmPool;
+            capacityLedger = previous.capacityLedger;
+            builderReconciler = previous.builderReconciler;
+            terminationService = previous.terminationService;
+        }
+        if (warmPool != null)
+            warmPool.setCloud(this);
+        if (capacityLedger != null)
+            capacityLedger.setCloud(this);
+        if (builderReconciler != null)
+            builderReconciler.setCloud(this);
+        if (terminationService != null)
+            terminationService.setCloud(this);
+    }
+
+    /**
+     * Invalidates the cached broker connection if the given failure was caused
+     * by a problem a fresh connection may fix; see
+     * {@link #isBrokerConnectionFailure(Throwable)}.
+     */
+    protected void invalidateOnFailure(Throwable failure) {
+        if (isBrokerConnectionFailure(failure)) {
+            invalidateOpenShiftConnection();
+        }
+    }
+
+    /**
+     * Returns whether the given failure is the broker rejecting the
+     * credentials, a broker request timing out, or a transport error raised
+     * by the broker client. I/O errors of the plugin's own DNS and SSH steps
+     * don't count: they say nothing about the broker connection.
+     */
+    static boolean isBrokerConnectionFailure(Throwable failure) {
+        boolean fromClient = false;
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof InvalidCredentialsOpenShiftException
+                    || t instanceof BrokerProxy.BrokerTimeoutException) {
+                return true;
+            }
+            if (t instanceof OpenShiftException) {
+                fromClient = true;
+            } else if (fromClient && (t instanceof SocketException
+                    || t instanceof SocketTimeoutException
+                    || t instanceof UnknownHostException
+                    || t instanceof SSLException)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public String getUsername() {
         return username;
     }
@@ -273,6 +510,198 @@ public final class OpenShiftCloud extends Cloud {
         return ignoreBrokerCertCheck;
     }
 
+    /**
+     * Returns how many builder applications may run side by side for a
+     * single label. A value of 1 keeps the classic single
+     * <code>&lt;label&gt;bldr</code> builder.
+     */
+    public int getMaxBuildersPerLabel() {
+        if (maxBuildersPerLabel <= 0)
+            return DEFAULT_MAX_BUILDERS_PER_LABEL;
+        return maxBuildersPerLabel;
+    }
+
+    @DataBoundSetter
+    public void setMaxBuildersPerLabel(int maxBuildersPerLabel) {
+        this.maxBuildersPerLabel = maxBuildersPerLabel;
+    }
+
+    /**
+     * Returns how many seconds the broker connection is reused before it is
+     * re-established.
+     */
+    public int getConnectionTimeToLive() {
+        if (connectionTimeToLive <= 0)
+            return DEFAULT_CONNECTION_TIME_TO_LIVE;
+        return connectionTimeToLive;
+    }
+
+    @DataBoundSetter
+    public void setConnectionTimeToLive(int connectionTimeToLive) {
+        this.connectionTimeToLive = connectionTimeToLive;
+    }
+
+    /**
+     * Returns how many seconds the application registry may serve lookups
+     * before it is rebuilt from the broker.
+     */
+    public int getApplicationRegistryStaleness() {
+        if (applicationRegistryStaleness <= 0)
+            return DEFAULT_APPLICATION_REGISTRY_STALENESS;
+        return applicationRegistryStaleness;
+    }
+
+    @DataBoundSetter
+    public void setApplicationRegistryStaleness(int applicationRegistryStaleness) {
+        this.applicationRegistryStaleness = applicationRegistryStaleness;
+    }
+
+    /**
+     * Returns after how many consecutive broker failures the circuit breaker
+     * opens.
+     */
+    public int getCircuitBreakerThreshold() {
+        if (circuitBreakerThreshold <= 0)
+            return DEFAULT_CIRCUIT_BREAKER_THRESHOLD;
+        return circuitBreakerThreshold;
+    }
+
+    @DataBoundSetter
+    public void setCircuitBreakerThreshold(int circuitBreakerThreshold) {
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+    }
+
+    /**
+     * Returns how many seconds the circuit breaker stays open before it lets
+     * a trial call through.
+     */
+    public int getCircuitBreakerResetTimeout() {
+        if (circuitBreakerResetTimeout <= 0)
+            return DEFAULT_CIRCUIT_BREAKER_RESET_TIMEOUT;
+        return circuitBreakerResetTimeout;
+    }
+
+    @DataBoundSetter
+    public void setCircuitBreakerResetTimeout(int circuitBreakerResetTimeout) {
+        this.circuitBreakerResetTimeout = circuitBreakerResetTimeout;
+    }
+
+    public int getBrokerConnectTimeout() {
+        return brokerConnectTimeout <= 0 ? DEFAULT_BROKER_CONNECT_TIMEOUT : brokerConnectTimeout;
+    }
+
+    @DataBoundSetter
+    public void setBrokerConnectTimeout(int brokerConnectTimeout) {
+        this.brokerConnectTimeout = brokerConnectTimeout;
+    }
+
+    public int getBrokerReadTimeout() {
+        return brokerReadTimeout <= 0 ? DEFAULT_BROKER_READ_TIMEOUT : brokerReadTimeout;
+    }
+
+    @DataBoundSetter
+    public void setBrokerReadTimeout(int brokerReadTimeout) {
+        this.brokerReadTimeout = brokerReadTimeout;
+    }
+
+    public int getCreateAppTimeout() {
+        return createAppTimeout <= 0 ? DEFAULT_CREATE_APP_TIMEOUT : createAppTimeout;
+    }
+
+    @DataBoundSetter
+    public void setCreateAppTimeout(int createAppTimeout) {
+        this.createAppTimeout = createAppTimeout;
+    }
+
+    public int getDnsTimeout() {
+        return dnsTimeout <= 0 ? DEFAULT_DNS_TIMEOUT : dnsTimeout;
+    }
+
+    @DataBoundSetter
+    public void setDnsTimeout(int dnsTimeout) {
+        this.dnsTimeout = dnsTimeout;
+    }
+
+    public int getSshTimeout() {
+        return sshTimeout <= 0 ? DEFAULT_SSH_TIMEOUT : sshTimeout;
+    }
+
+    @DataBoundSetter
+    public void setSshTimeout(int sshTimeout) {
+        this.sshTimeout = sshTimeout;
+    }
+
+    public int getProvisioningTimeout() {
+        return provisioningTimeout <= 0 ? DEFAULT_PROVISIONING_TIMEOUT : provisioningTimeout;
+    }
+
+    @DataBoundSetter
+    public void setProvisioningTimeout(int provisioningTimeout) {
+        this.provisioningTimeout = provisioningTimeout;
+    }
+
+    /**
+     * Returns how many minutes an idle builder stays hibernated before it is
+     * destroyed.
+     */
+    public int getHibernationTimeToLive() {
+        if (hibernationTimeToLive <= 0)
+            return DEFAULT_HIBERNATION_TIME_TO_LIVE;
+        return hibernationTimeToLive;
+    }
+
+    @DataBoundSetter
+    public void setHibernationTimeToLive(int hibernationTimeToLive) {
+        this.hibernationTimeToLive = hibernationTimeToLive;
+    }
+
+    /**
+     * Returns the configured timeouts (in seconds) as budgets in ms.
+     */
+    public TimeoutBudgets getTimeoutBudgets() {
+        return new TimeoutBudgets(getBrokerConnectTimeout() * 1000L,
+                getBrokerReadTimeout() * 1000L, getCreateAppTimeout() * 1000L,
+                getDnsTimeout() * 1000L, getSshTimeout() * 1000L,
+                getProvisioningTimeout() * 1000L);
+    }
+
+    public String getWarmPoolLabels() {
+        return warmPoolLabels;
+    }
+
+    @DataBoundSetter
+    public void setWarmPoolLabels(String warmPoolLabels) {
+        this.warmPoolLabels = warmPoolLabels;
+    }
+
+    /**
+     * Returns the labels for which idle builders are kept ready.
+     */
+    public List<String> getWarmPoolLabelList() {
+        List<String> labels = new ArrayList<String>();
+        if (warmPoolLabels != null) {
+            for (String label : warmPoolLabels.split("[\\s,]+")) {
+                if (label.length() > 0)
+                    labels.add(label);
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Returns how many idle builders are kept ready per warm pool label, 0
+     * disabling the warm pool. The pool can't hold more builders for a label
+     * than {@link #getMaxBuildersPerLabel()} allows.
+     */
+    public int getWarmPoolSize() {
+        return warmPoolSize;
+    }
+
+    @DataBoundSetter
+    public void setWarmPoolSize(int warmPoolSize) {
+        this.warmPoolSize = warmPoolSize;
+    }
+
     private File locateKey() {
         // Look in the environment variables for the key location
         String dataDir = System.getenv("OPENSHIFT_DATA_DIR");
@@ -289,22 +718,15 @@ public final class OpenShiftCloud extends Cloud {
     }
 
     /**
-     * Returns whether a new builder should be provisioned. If an existing build
-     * type exists or the user is out of application capacity, the result will
-     * be false.
+     * Reserves the gears of a new builder in the {@link CapacityLedger}. If
+     * the user is out of application capacity, the result will be false.
      *
      * @return whether a new builder should be provisioned
      */
-    protected boolean hasCapacity(String name, IUser user) throws IOException {
-        LOGGER.info("Checking capacity");
-        long maxGears = user.getMaxGears();
-        long consumedGears = user.getConsumedGears();
-
-        LOGGER.info("User has consumed " + consumedGears + " of " + maxGears
-                + " gears.");
-        boolean hasCapacity = consumedGears < maxGears;
-
-        if (!hasCapacity) {
+    protected boolean reserveCapacity(String name, int gears) throws IOException {
+        LOGGER.info("Checking capacity for " + name);
+        if (!getCapacityLedger().reserve(gears)) {
+            ProvisioningMetrics.get().increment(ProvisioningMetrics.Counter.CAPACITY_REFUSALS);
             LOGGER.info("No capacity remaining.  Not provisioning...");
             return false;
         }
@@ -315,11 +737,9 @@ public final class OpenShiftCloud extends Cloud {
     protected boolean builderExists(String name, IUser userInfo)
             throws IOException, OpenShiftException {
         LOGGER.info("Capacity remaining - checking for existing type...");
-        for (IApplication app : userInfo.getDomain(getNamespace()).getApplications()) {
-            if (app.getName().equals(name)) {
-                LOGGER.info("Found an existing builder.  Not provisioning...");
-                return true;
-            }
+        if (getApplicationRegistry().getByName(name) != null) {
+            LOGGER.info("Found an existing builder.  Not provisioning...");
+            return true;
         }
 
         LOGGER.info("No suitable builders found.");
@@ -328,78 +748,17 @@ public final class OpenShiftCloud extends Cloud {
 
     public Collection<PlannedNode> provision(Label label, int excessWorkload) {
 
-        System.setProperty("com.openshift.httpclient.timeout", "300000");
-        System.setProperty("sun.net.client.defaultConnectTimeout", "300000");
-        System.setProperty("sun.net.client.defaultReadTimeout", "300000");
-
-        service = null;
-
         LOGGER.info("Provisioning new node for workload = " + excessWorkload
                 + " and label = " + label + " in domain " + getNamespace());
 
         if (slaveIdleTimeToLive == 0)
             slaveIdleTimeToLive = 15;
 
-        String applicationUUID = null;
-        String builderType = "diy-0.1";
         String builderName = "raw" + APP_NAME_BUILDER_EXTENSION;
-        String builderSize = OpenShiftCloud.get().getDefaultBuilderSize();
-        String region = null;
-        String builderPlatform = DEFAULT_PLATFORM;
-        long builderTimeout = DEFAULT_TIMEOUT;
-
         String labelStr = DEFAULT_LABEL;
 
         // Derive the builderType
-        if (label != null) {
-            labelStr = label.toString();
-
-            AbstractProject job = Hudson.getInstance().getItemByFullName(
-                    labelStr, AbstractProject.class);
-            if (job != null) {
-                OpenShiftBuilderSizeJobProperty osbsjp = ((OpenShiftBuilderSizeJobProperty) job
-                        .getProperty(OpenShiftBuilderSizeJobProperty.class));
-                builderSize = osbsjp.builderSize;
-
-                OpenShiftRegionJobProperty osrjp = ((OpenShiftRegionJobProperty) job
-                        .getProperty(OpenShiftRegionJobProperty.class));
-                region = osrjp==null?null:osrjp.region;
-
-                OpenShiftApplicationUUIDJobProperty osappuidjp = ((OpenShiftApplicationUUIDJobProperty) job
-                        .getProperty(OpenShiftApplicationUUIDJobProperty.class));
-                applicationUUID = osappuidjp==null?null:osappuidjp.applicationUUID;
-
-                OpenShiftBuilderTypeJobProperty osbtjp = ((OpenShiftBuilderTypeJobProperty) job
-                        .getProperty(OpenShiftBuilderTypeJobProperty.class));
-                builderType = osbtjp.builderType;
-
-                OpenShiftPlatformJobProperty ospjp = ((OpenShiftPlatformJobProperty) job
-                        .getProperty(OpenShiftPlatformJobProperty.class));
-                if(ospjp!=null) {
-                    builderPlatform = ospjp.platform;
-                }
-
-                OpenShiftBuilderTimeoutJobProperty timeoutJobProperty = ((OpenShiftBuilderTimeoutJobProperty) job
-                        .getProperty(OpenShiftBuilderTimeoutJobProperty.class));
-                if (timeoutJobProperty != null)
-                    builderTimeout = timeoutJobProperty.builderTimeout;
-                else
-                    builderTimeout = -1;
-
-                if (labelStr.endsWith("-build")) {
-                    builderName = labelStr.substring(0,
-                            labelStr.indexOf("-build"));
-                }
-
-                if (builderName.length() > (APP_NAME_MAX_LENGTH - APP_NAME_BUILDER_EXTENSION
-                        .length())) {
-                    builderName = builderName.substring(0, APP_NAME_MAX_LENGTH
-                            - APP_NAME_BUILDER_EXTENSION.length());
-                }
-                builderName = builderName + APP_NAME_BUILDER_EXTENSION;
-
-            }
-        } else {
+        if (label == null) {
             LOGGER.info("Cancelling build - Label is null");
 
             cancelBuild(builderName);
@@ -407,257 +766,345 @@ public final class OpenShiftCloud extends Cloud {
             throw new UnsupportedOperationException("No Label");
         }
 
+        labelStr = label.toString();
+        BuilderSpec spec = BuilderSpec.forLabel(labelStr, getDefaultBuilderSize());
+        builderName = spec.getBuilderName();
+
         Queue.Item item = getItem(builderName, labelStr);
 
         List<PlannedNode> result = new ArrayList<PlannedNode>();
 
-        int failures = 0;
-        Exception exception = null;
-        while (failures < FAILURE_LIMIT) {
-            try {
-                provisionSlave(result, applicationUUID, builderType, builderName, builderSize, region, builderPlatform,
-                        label, labelStr, builderTimeout, excessWorkload);
-
-                LOGGER.info("Provisioned " + result.size() + " new nodes");
-
-                if (result.size() == 0) {
-                    cancelItem(item, builderName, labelStr);
-                }
+        if (getCircuitBreaker().isOpen()) {
+            // Leave the item queued; it is provisioned once the broker is back
+            LOGGER.info("Broker circuit is open. Not provisioning " + labelStr);
+            return result;
+        }
 
-                return result;
-            } catch (Exception e) {
-                ++failures;
-                exception = e;
+        long backOff = PROVISION_RETRIES.getRemainingDelay(labelStr);
+        if (backOff > 0) {
+            LOGGER.info("Backing off provisioning for " + labelStr + " for another "
+                    + backOff + "ms");
+            return result;
+        }
 
-                LOGGER.warning("Caught " + e + ". Will retry "
-                        + (FAILURE_LIMIT - failures)
-                        + " more times before canceling build.");
+        try {
+            synchronized (getProvisioningLock(spec)) {
+                provisionSlave(result, spec, label, excessWorkload, item);
+            }
+            PROVISION_RETRIES.reset(labelStr);
 
+            LOGGER.info("Provisioned " + result.size() + " new nodes");
 
-                try {
-                    Thread.sleep(RETRY_DELAY);
-                } catch (Exception e1) {
-                }
+            if (result.size() == 0 && !isProvisioning(spec)) {
+                cancelItem(item, builderName, labelStr);
+            }
+        } catch (Exception e) {
+            if (CircuitBreaker.isRejection(e)) {
+                // Not the label's fault; it is provisioned once the broker is back
+                LOGGER.info("Broker unavailable, not provisioning " + labelStr + ": " + e.getMessage());
+                return result;
+            }
+            invalidateOnFailure(e);
+            RetryPolicy.Fault fault = RetryPolicy.classify(e);
+            int failures = PROVISION_RETRIES.getFailures(labelStr) + 1;
+            if (!PROVISION_RETRIES.shouldRetry(fault, failures)) {
+                LOGGER.log(Level.WARNING, "Cancelling build after " + failures
+                        + " attempts due to " + fault + " fault", e);
+                PROVISION_RETRIES.reset(labelStr);
+                ProvisioningMetrics.get().increment(ProvisioningMetrics.Counter.FAILURES);
+                cancelItem(item, builderName, labelStr);
+                return result;
             }
-        }
 
-        LOGGER.warning("Cancelling build due to earlier exceptions");
-        if (null != exception) {
-            exception.printStackTrace();
+            // Leave the provisioner thread alone; the queue is nudged once the
+            // backoff has passed and the next round tries again
+            long delay = PROVISION_RETRIES.getDelay(failures);
+            PROVISION_RETRIES.backOff(labelStr, failures, delay);
+            ProvisioningMetrics.get().increment(ProvisioningMetrics.Counter.RETRIES);
+            LOGGER.warning("Caught " + e + " (" + fault + " fault). Will retry in "
+                    + delay + "ms, " + (PROVISION_RETRY_LIMIT - failures)
+                    + " more times before canceling build.");
+            Timer.get().schedule(new Runnable() {
+                public void run() {
+                    Hudson.getInstance().getQueue().scheduleMaintenance();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
         }
 
-        this.cancelItem(item, builderName, labelStr);
-
         return result;
     }
 
-    protected void provisionSlave(List<PlannedNode> result, String appUUID, String builderType, String builderName, String builderSize, String region, String builderPlatform, Label label, String labelStr, long builderTimeout, int excessWorkload)
+    protected void provisionSlave(List<PlannedNode> result, BuilderSpec spec, Label label, int excessWorkload, Queue.Item item)
             throws Exception {
-        List<OpenShiftSlave> slaves = getSlaves();
-        for (OpenShiftSlave slave : slaves) {
-            Hudson.getInstance().addNode(slave);
+        // Discovery and adoption of existing builders is left to the
+        // reconciler; provisioning only reads what it found
+        List<OpenShiftSlave> slaves = getBuilderReconciler().getSnapshot();
+
+        String builderName = spec.getBuilderName();
+        String labelStr = spec.getLabel();
+
+        // The NodeProvisioner doesn't count what the EagerProvisioner planned
+        int eager = EagerProvisioner.getPlannedExecutors(labelStr);
+        if (eager > 0) {
+            LOGGER.info(eager + " executors for " + labelStr + " are being provisioned eagerly");
+            excessWorkload -= eager;
         }
 
-        final String applicationUUID = appUUID;
-        final String type = builderType;
-        final String name = builderName;
-        final String size = builderSize;
-        final String platform = builderPlatform;
-        final String plannedNodeName = labelStr;
-        final long timeout = builderTimeout;
-        final int executors = excessWorkload;
-
         if (excessWorkload <= 0) return;
-
-        OpenShiftSlave slave = getSlave(slaves, builderName);
-
         IUser user = this.getOpenShiftConnection().getUser();
 
-        if (slave != null && builderExists(builderName, user)) {
-            LOGGER.info("Slave exists. Not provisioning");
-            return;
-        }
+        int maxBuilders = getMaxBuildersPerLabel();
+        if (maxBuilders <= 1) {
+            OpenShiftSlave slave = getSlave(slaves, builderName);
 
-        if (!hasCapacity(name, user)) {
-            LOGGER.info("Not provisioning new builder due to lack of capacity");
-            return;
-        }
+            if (slave != null && slave.isHibernated() && slave.toComputer() != null
+                    && !slave.toComputer().isConnecting()) {
+                result.add(planHibernatedBuilder(slave, item));
+                return;
+            }
 
-        reloadConfig(label);
+            if (ProvisioningPipeline.isInFlight(builderName)) {
+                LOGGER.info("Builder " + builderName + " is still being provisioned. Not provisioning");
+                return;
+            }
 
-        // Provision a new slave builder
-        final OpenShiftSlave newSlave = new OpenShiftSlave(
-                name, applicationUUID, type, size, region, platform,
-                plannedNodeName, timeout,
-                executors, slaveIdleTimeToLive);
+            if (slave != null && builderExists(builderName, user)) {
+                LOGGER.info("Slave exists. Not provisioning");
+                return;
+            }
 
-        newSlave.provision();
+            OpenShiftSlave warm = getWarmPool().claim(labelStr);
+            if (warm != null) {
+                result.add(planWarmBuilder(warm, item));
+                return;
+            }
 
-        Future<Node> future = Computer.threadPoolForRemoting.submit(new Callable<Node>() {
-            public Node call() throws Exception {
-                Hudson.getInstance().addNode(newSlave);
-                return newSlave;
+            if (getWarmPool().contains(builderName)) {
+                LOGGER.info("Warm builder " + builderName + " is still being created. Not provisioning");
+                return;
             }
-        });
 
-        PlannedNode node = new PlannedNode(plannedNodeName, future, executors);
-        result.add(node);
-    }
+            OpenShiftSlave newSlave = spec.newSlave(builderName, excessWorkload, slaveIdleTimeToLive);
+            if (!reserveCapacity(builderName, spec.getGears())) {
+                if (evictHibernatedBuilder()) {
+                    throw new CapacityLedger.CapacityPendingException(
+                            "Waiting for a hibernated builder to be destroyed for " + builderName);
+                }
+                LOGGER.info("Not provisioning new builder due to lack of capacity");
+                return;
+            }
 
-    protected void reloadConfig(Label label) throws IOException,
-            InterruptedException, ReactorException {
-        LOGGER.info("Reloading configuration for " + label.toString() + "...");
+            reloadConfig(label);
 
-        String ip = System.getenv("OPENSHIFT_JENKINS_IP");
-        if (ip == null) {
-            ip = System.getenv("OPENSHIFT_INTERNAL_IP");
-        }
-        String port = System.getenv("OPENSHIFT_JENKINS_PORT");
-        if (port == null) {
-            port = System.getenv("OPENSHIFT_INTERNAL_PORT");
+            result.add(planBuilder(newSlave, item));
+            return;
         }
-        String username = System.getenv("JENKINS_USERNAME");
-        String password = System.getenv("JENKINS_PASSWORD");
-
-        String name = label.toString();
-
-        URL url = new URL("http://" + ip + ":" + port + "/job/" + name
-                + "/config.xml");
-        HttpURLConnection connection = null;
-        String config = null;
 
-        try {
-            LOGGER.info("Retrieving config XML from " + url.toString());
+        // Scale-out mode: spread the workload over up to maxBuilders gears,
+        // waking hibernated builders and taking warm gears first
+        int builders = Math.min(excessWorkload, maxBuilders);
+        int workload = excessWorkload;
+        for (String candidate : getBuilderNames(builderName, maxBuilders)) {
+            if (builders <= 0 || workload <= 0)
+                return;
+            OpenShiftSlave hibernated = getSlave(slaves, candidate);
+            if (hibernated != null && hibernated.isHibernated()
+                    && hibernated.toComputer() != null
+                    && !hibernated.toComputer().isConnecting()) {
+                result.add(planHibernatedBuilder(hibernated, item));
+                builders--;
+                workload -= hibernated.getNumExecutors();
+            }
+        }
+        OpenShiftSlave warm;
+        while (builders > 0 && (warm = getWarmPool().claim(labelStr)) != null) {
+            result.add(planWarmBuilder(warm, item));
+            builders--;
+            workload -= warm.getNumExecutors();
+        }
+        if (builders <= 0 || workload <= 0) {
+            return;
+        }
 
-            connection = createConnection(url, username, password);
-            connection.setRequestMethod("GET");
-            config = readToString(connection.getInputStream());
+        builders = Math.min(builders, workload);
+
+        List<String> candidates = new ArrayList<String>();
+        for (String candidate : getBuilderNames(builderName, maxBuilders)) {
+            if (candidates.size() == builders)
+                break;
+            if (getSlave(slaves, candidate) != null || getWarmPool().contains(candidate)
+                    || ProvisioningPipeline.isInFlight(candidate)
+                    || builderExists(candidate, user))
+                continue;
+            candidates.add(candidate);
+        }
 
-            if (config == null || config.trim().length() == 0) {
-                throw new RuntimeException(
-                        "Received empty config XML from API call to "
-                                + url.toString());
+        // Reserve only once the broker lookups are done, so a failing lookup
+        // can't leave reservations behind
+        boolean evicted = false;
+        for (int i = 0; i < candidates.size(); i++) {
+            if (!reserveCapacity(candidates.get(i), spec.getGears())) {
+                candidates = candidates.subList(0, i);
+                evicted = evictHibernatedBuilder();
+                break;
             }
+        }
 
-            config = config.trim();
+        if (candidates.isEmpty() && evicted) {
+            throw new CapacityLedger.CapacityPendingException(
+                    "Waiting for a hibernated builder to be destroyed for " + labelStr);
+        }
+        if (candidates.isEmpty()) {
+            LOGGER.info("No builders can be added for " + labelStr + ". Not provisioning");
+            return;
+        }
+        int executors = (workload + candidates.size() - 1) / candidates.size();
 
-        } catch (IOException e) {
-            LOGGER.warning("Reload GET:");
-            if (config != null) {
-                for (char c : config.toCharArray()) {
-                    System.out.printf("U+%04x ", (int) c);
-                }
-            }
-            throw e;
-        } finally {
-            if (connection != null)
-                connection.disconnect();
+        reloadConfig(label);
+
+        LOGGER.info("Provisioning " + candidates.size() + " builders for " + labelStr
+                + " with " + executors + " executors each");
+        for (String candidate : candidates) {
+            result.add(planBuilder(spec.newSlave(candidate, executors, slaveIdleTimeToLive), item));
         }
+    }
 
-        try {
-            LOGGER.info("Reloading config from XML: " + config);
+    private PlannedNode planBuilder(OpenShiftSlave newSlave, Queue.Item item) {
+        String labelStr = newSlave.getLabelString();
 
-            connection = createConnection(url, username, password);
-            connection.setRequestMethod("POST");
-            connection.setDoOutput(true);
+        // Creation, DNS and the SSH handshake run in the pipeline so the
+        // provisioner thread is free to serve other labels meanwhile
+        Future<Node> future = ProvisioningPipeline.submit(this, newSlave, item, labelStr);
 
-            writeTo(config.getBytes(), connection.getOutputStream());
-            String result = readToString(connection.getInputStream());
+        return new PlannedNode(labelStr, future, newSlave.getNumExecutors());
+    }
 
-            int code = connection.getResponseCode();
+    private PlannedNode planHibernatedBuilder(OpenShiftSlave slave, Queue.Item item) {
+        String labelStr = slave.getLabelString();
 
-            LOGGER.info("Reload ResponseCode: " + code);
+        LOGGER.info("Waking hibernated builder " + slave.getNodeName() + " for " + labelStr);
+        Future<Node> future = ProvisioningPipeline.submitHibernated(this, slave, item, labelStr);
 
-            if (code != HttpURLConnection.HTTP_OK) {
-                throw new RuntimeException("Received an invalid response ("
-                        + code + ") while updating config XML. "
-                        + "Server response: " + result);
-            }
+        return new PlannedNode(labelStr, future, slave.getNumExecutors());
+    }
 
-            LOGGER.info("Config reload result: " + result);
-        } catch (IOException e) {
-            LOGGER.warning("Reload POST:");
-            if (config != null) {
-                for (char c : config.toCharArray()) {
-                    System.out.printf("U+%04x ", (int) c);
+    /**
+     * Destroys the builder that has been hibernated the longest to give its
+     * gear to a new builder. The gear is freed once the destroy completes,
+     * so the capacity becomes available to a later provisioning round.
+     *
+     * @return whether a builder was evicted
+     */
+    protected boolean evictHibernatedBuilder() {
+        OpenShiftSlave oldest = null;
+        for (Node node : Hudson.getInstance().getNodes()) {
+            if (node instanceof OpenShiftSlave) {
+                OpenShiftSlave slave = (OpenShiftSlave) node;
+                if (slave.isHibernated() && (oldest == null
+                        || slave.getHibernatedSince() < oldest.getHibernatedSince())) {
+                    oldest = slave;
                 }
             }
-            throw e;
-        } finally {
-            if (connection != null)
-                connection.disconnect();
         }
-    }
+        if (oldest == null)
+            return false;
 
-    protected void writeTo(byte[] data, OutputStream outputStream)
-            throws IOException {
-        outputStream.write(data);
-        outputStream.flush();
-        outputStream.close();
+        LOGGER.info("Evicting hibernated builder " + oldest.getNodeName() + " to free its gear");
+        try {
+            oldest.terminate();
+            return true;
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to evict " + oldest.getNodeName(), e);
+            return false;
+        }
     }
 
-    protected HttpURLConnection createConnection(URL url, String username,
-                                                 String password) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-
-        connection.setUseCaches(false);
-        connection.setDoInput(true);
-        connection.setAllowUserInteraction(false);
-        connection.setRequestProperty("Content-Type", "text/plain");
-        connection.setInstanceFollowRedirects(true);
-        setConnectTimeout(connection);
-        setReadTimeout(connection);
-
-        LOGGER.info("Using credentials " + username + ":" + password);
+    private PlannedNode planWarmBuilder(OpenShiftSlave warmSlave, Queue.Item item) {
+        String labelStr = warmSlave.getLabelString();
 
-        String basicAuth = "Basic "
-                + new String(Base64.encodeBase64(new String(username + ":"
-                + password).getBytes()));
-        connection.setRequestProperty("Authorization", basicAuth);
+        LOGGER.info("Using warm builder " + warmSlave.getNodeName() + " for " + labelStr);
+        Future<Node> future = ProvisioningPipeline.submitProvisioned(this, warmSlave, item, labelStr);
 
-        return connection;
+        return new PlannedNode(labelStr, future, warmSlave.getNumExecutors());
     }
 
-    private void setConnectTimeout(URLConnection connection) {
-        int timeout = getSystemPropertyInteger(SYSPROP_OPENSHIFT_CONNECT_TIMEOUT);
-        if (timeout > -1) {
-            connection.setConnectTimeout(timeout);
-            return;
-        }
-        timeout = getSystemPropertyInteger(SYSPROP_DEFAULT_CONNECT_TIMEOUT);
-        if (timeout == -1) {
-            connection.setConnectTimeout(DEFAULT_CONNECT_TIMEOUT);
+    /**
+     * Returns the builder application names a label may use: the single
+     * <code>&lt;label&gt;bldr</code>, or the indexed names in scale-out mode.
+     */
+    protected List<String> getBuilderNames(BuilderSpec spec) {
+        int maxBuilders = getMaxBuildersPerLabel();
+        if (maxBuilders <= 1) {
+            return Collections.singletonList(spec.getBuilderName());
         }
+        return getBuilderNames(spec.getBuilderName(), maxBuilders);
     }
 
-    private void setReadTimeout(URLConnection connection) {
-        int timeout = getSystemPropertyInteger(SYSPROP_DEFAULT_READ_TIMEOUT);
-        if (timeout == -1) {
-            connection.setReadTimeout(DEFAULT_READ_TIMEOUT);
+    /**
+     * Returns the lock provisioning for the given spec is planned under, so
+     * the NodeProvisioner and the {@link EagerProvisioner} can't both pass
+     * the checks for the same builder. It covers the checks, the gear
+     * reservation and the hand-over to the {@link ProvisioningPipeline}.
+     */
+    Object getProvisioningLock(BuilderSpec spec) {
+        Object lock = PROVISIONING_LOCKS.get(spec.getBuilderName());
+        if (lock == null) {
+            PROVISIONING_LOCKS.putIfAbsent(spec.getBuilderName(), new Object());
+            lock = PROVISIONING_LOCKS.get(spec.getBuilderName());
         }
+        return lock;
     }
 
-    private int getSystemPropertyInteger(String key) {
-        try {
-            return Integer.parseInt(System.getProperty(key));
-        } catch (NumberFormatException e) {
-            return -1;
+    /**
+     * Returns whether any builder of the given spec is still in the
+     * {@link ProvisioningPipeline}, e.g. one started by the
+     * {@link EagerProvisioner}.
+     */
+    protected boolean isProvisioning(BuilderSpec spec) {
+        for (String name : getBuilderNames(spec)) {
+            if (ProvisioningPipeline.isInFlight(name))
+                return true;
         }
+        return false;
     }
 
-    private void setPermissiveSSLSocketFactory(HttpsURLConnection service) {
-        try {
-            SSLContext sslContext = SSLContext.getInstance("SSL");
-            sslContext.init(new KeyManager[0],
-                    new TrustManager[]{new PermissiveTrustManager()},
-                    new SecureRandom());
-            SSLSocketFactory socketFactory = sslContext.getSocketFactory();
-            ((HttpsURLConnection) service).setSSLSocketFactory(socketFactory);
-        } catch (KeyManagementException e) {
-            // ignore
-        } catch (NoSuchAlgorithmException e) {
-            // ignore
+    /**
+     * Returns the indexed builder names (<code>&lt;label&gt;bldr1..N</code>)
+     * used in scale-out mode, each truncated to fit the application name
+     * limit.
+     */
+    protected static List<String> getBuilderNames(String builderName, int count) {
+        String base = builderName.substring(0,
+                builderName.length() - APP_NAME_BUILDER_EXTENSION.length());
+        List<String> names = new ArrayList<String>(count);
+        for (int i = 1; i <= count; i++) {
+            String suffix = APP_NAME_BUILDER_EXTENSION + i;
+            String prefix = base;
+            if (prefix.length() > APP_NAME_MAX_LENGTH - suffix.length()) {
+                prefix = prefix.substring(0, APP_NAME_MAX_LENGTH - suffix.length());
+            }
+            names.add(prefix + suffix);
         }
+        return names;
+    }
+
+    /**
+     * Returns whether the given application name belongs to a builder, either
+     * the classic <code>&lt;label&gt;bldr</code> or an indexed scale-out one.
+     */
+    protected static boolean isBuilderName(String appName) {
+        return appName.matches(".+" + APP_NAME_BUILDER_EXTENSION + "[0-9]*");
+    }
+
+    /**
+     * Makes the label of a job pick up builders added for it. This used to
+     * GET and POST back the job's config.xml over HTTP; resetting the label's
+     * cached node set and nudging the queue has the same effect in-process.
+     */
+    protected void reloadConfig(Label label) {
+        LOGGER.info("Reloading label " + label.toString() + "...");
+        label.reset();
+        Hudson.getInstance().getQueue().scheduleMaintenance();
     }
 
     public static String readToString(InputStream inputStream)
@@ -682,18 +1129,6 @@ public final class OpenShiftCloud extends Cloud {
         return writer.toString();
     }
 
-    protected boolean isBuildRunning(Label label) {
-        boolean running = false;
-        Job job = (Job) Hudson.getInstance().getItem(label.getName());
-        if (job != null) {
-            Queue.Item item = job.getQueueItem();
-            if (item != null)
-                running = true;
-        }
-
-        return running;
-    }
-
     protected OpenShiftSlave getSlave(List<OpenShiftSlave> slaves,
                                       String builderName) {
 
@@ -705,6 +1140,11 @@ public final class OpenShiftCloud extends Cloud {
                     return slave;
             }
         }
+
+        // Builders added since the slaves were listed
+        Node node = Hudson.getInstance().getNode(builderName);
+        if (node instanceof OpenShiftSlave)
+            return (OpenShiftSlave) node;
         return null;
     }
 
@@ -761,7 +1201,9 @@ public final class OpenShiftCloud extends Cloud {
 
             if (item != null) {
                 Queue queue = Queue.getInstance();
-                boolean canceled = queue.cancel(item);
+                if (queue.cancel(item)) {
+                    ProvisioningMetrics.get().increment(ProvisioningMetrics.Counter.CANCELLATIONS);
+                }
                 LOGGER.warning("Build " + label + " " + builderName
                         + " has been canceled");
             }
@@ -801,11 +1243,37 @@ public final class OpenShiftCloud extends Cloud {
         private boolean ignoreBrokerCertCheck;
         private int slaveIdleTimeToLive = 15;
         private int maxSlaveIdleTimeToLive = 15;
+        private int maxBuildersPerLabel = DEFAULT_MAX_BUILDERS_PER_LABEL;
+        private int connectionTimeToLive = DEFAULT_CONNECTION_TIME_TO_LIVE;
+        private int applicationRegistryStaleness = DEFAULT_APPLICATION_REGISTRY_STALENESS;
+        private String warmPoolLabels;
+        private int warmPoolSize;
+        private int circuitBreakerThreshold = DEFAULT_CIRCUIT_BREAKER_THRESHOLD;
+        private int circuitBreakerResetTimeout = DEFAULT_CIRCUIT_BREAKER_RESET_TIMEOUT;
+        private int brokerConnectTimeout = DEFAULT_BROKER_CONNECT_TIMEOUT;
+        private int brokerReadTimeout = DEFAULT_BROKER_READ_TIMEOUT;
+        private int createAppTimeout = DEFAULT_CREATE_APP_TIMEOUT;
+        private int dnsTimeout = DEFAULT_DNS_TIMEOUT;
+        private int sshTimeout = DEFAULT_SSH_TIMEOUT;
+        private int provisioningTimeout = DEFAULT_PROVISIONING_TIMEOUT;
+        private int hibernationTimeToLive = DEFAULT_HIBERNATION_TIME_TO_LIVE;
 
         public String getDisplayName() {
             return "OpenShift Cloud";
         }
 
+        @Override
+        public Cloud newInstance(StaplerRequest req, JSONObject formData)
+                throws FormException {
+            // Saving the configuration replaces the cloud
+            OpenShiftCloud previous = OpenShiftCloud.get();
+            OpenShiftCloud cloud = (OpenShiftCloud) super.newInstance(req, formData);
+            if (previous != null) {
+                cloud.takeServices(previous);
+            }
+            return cloud;
+        }
+
         @Override
         public boolean configure(StaplerRequest req, JSONObject o)
                 throws FormException {
@@ -820,6 +1288,20 @@ public final class OpenShiftCloud extends Cloud {
             maxSlaveIdleTimeToLive = o.getInt("maxSlaveIdleTimeToLive");
             ignoreBrokerCertCheck = o.getBoolean("ignoreBrokerCertCheck");
             defaultBuilderSize = o.getString("defaultBuilderSize");
+            maxBuildersPerLabel = o.getInt("maxBuildersPerLabel");
+            connectionTimeToLive = o.getInt("connectionTimeToLive");
+            applicationRegistryStaleness = o.getInt("applicationRegistryStaleness");
+            warmPoolLabels = o.getString("warmPoolLabels");
+            warmPoolSize = o.getInt("warmPoolSize");
+            circuitBreakerThreshold = o.getInt("circuitBreakerThreshold");
+            circuitBreakerResetTimeout = o.getInt("circuitBreakerResetTimeout");
+            brokerConnectTimeout = o.getInt("brokerConnectTimeout");
+            brokerReadTimeout = o.getInt("brokerReadTimeout");
+            createAppTimeout = o.getInt("createAppTimeout");
+            dnsTimeout = o.getInt("dnsTimeout");
+            sshTimeout = o.getInt("sshTimeout");
+            provisioningTimeout = o.getInt("provisioningTimeout");
+            hibernationTimeToLive = o.getInt("hibernationTimeToLive");
             save();
 
             return super.configure(req, o);
@@ -864,6 +1346,73 @@ public final class OpenShiftCloud extends Cloud {
         public String getDefaultBuilderSize() {
             return defaultBuilderSize;
         }
+
+        public int getMaxBuildersPerLabel() {
+            return maxBuildersPerLabel;
+        }
+
+        public int getConnectionTimeToLive() {
+            return connectionTimeToLive;
+        }
+
+        public int getApplicationRegistryStaleness() {
+            return applicationRegistryStaleness;
+        }
+
+        public String getWarmPoolLabels() {
+            return warmPoolLabels;
+        }
+
+        public int getWarmPoolSize() {
+            return warmPoolSize;
+        }
+
+        public int getCircuitBreakerThreshold() {
+            return circuitBreakerThreshold;
+        }
+
+        public int getCircuitBreakerResetTimeout() {
+            return circuitBreakerResetTimeout;
+        }
+
+        public int getBrokerConnectTimeout() {
+            return brokerConnectTimeout;
+        }
+
+        public int getBrokerReadTimeout() {
+            return brokerReadTimeout;
+        }
+
+        public int getCreateAppTimeout() {
+            return createAppTimeout;
+        }
+
+        public int getDnsTimeout() {
+            return dnsTimeout;
+        }
+
+        public int getSshTimeout() {
+            return sshTimeout;
+        }
+
+        public int getProvisioningTimeout() {
+            return provisioningTimeout;
+        }
+
+        public int getHibernationTimeToLive() {
+            return hibernationTimeToLive;
+        }
+
+        @Restricted(NoExternalUse.class)
+        public FormValidation doCheckWarmPoolSize(@QueryParameter int warmPoolSize,
+                                                  @QueryParameter int maxBuildersPerLabel) {
+            int maxBuilders = Math.max(maxBuildersPerLabel, DEFAULT_MAX_BUILDERS_PER_LABEL);
+            if (warmPoolSize > maxBuilders) {
+                return FormValidation.warning("At most " + maxBuilders
+                        + " warm builders per label are kept, as many as the max builders per label");
+            }
+            return FormValidation.ok();
+        }
     }
 
     /**
@@ -879,10 +1428,9 @@ public final class OpenShiftCloud extends Cloud {
 
         List<OpenShiftSlave> slaveList = new ArrayList<OpenShiftSlave>();
 
-        for (IApplication appInfo : this.getOpenShiftConnection().getUser()
-                .getDomain(getNamespace()).getApplications()) {
+        for (IApplication appInfo : getApplicationRegistry().getApplications()) {
             String appName = appInfo.getName();
-            if (appName.endsWith(APP_NAME_BUILDER_EXTENSION) && !appName.equals(APP_NAME_BUILDER_EXTENSION)) {
+            if (isBuilderName(appName) && !getWarmPool().contains(appName)) {
                 Node node = Hudson.getInstance().getNode(appName);
                 OpenShiftSlave slave = null;
                 if (node == null || !(node instanceof OpenShiftSlave)) {
@@ -906,27 +1454,4 @@ public final class OpenShiftCloud extends Cloud {
         }
         return slaveList;
     }
-
-    private static class NoopHostnameVerifier implements HostnameVerifier {
-
-        public boolean verify(String hostname, SSLSession sslSession) {
-            return true;
-        }
-    }
-
-    private static class PermissiveTrustManager implements X509TrustManager {
-
-        public X509Certificate[] getAcceptedIssuers() {
-            return null;
-        }
-
-        public void checkServerTrusted(X509Certificate[] chain, String authType)
-                throws CertificateException {
-        }
-
-        public void checkClientTrusted(X509Certificate[] chain, String authType)
-                throws CertificateException {
-        }
-    }
 }
-
@@ -1,31 +1,35 @@
 package hudson.plugins.openshift;
 
+import hudson.model.Hudson;
 import hudson.model.TaskListener;
 import hudson.model.Descriptor;
 import hudson.remoting.Channel.Listener;
 import hudson.slaves.ComputerLauncher;
 import hudson.slaves.SlaveComputer;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
-import java.util.StringTokenizer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.jcraft.jsch.Channel;
 import com.jcraft.jsch.ChannelExec;
-import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
-import com.openshift.client.OpenShiftException;
+
+import org.apache.commons.codec.digest.DigestUtils;
 
 public class OpenShiftComputerLauncher extends ComputerLauncher {
 
     private static final Logger LOGGER = Logger
             .getLogger(OpenShiftComputerLauncher.class.getName());
 
+    private static final long EXEC_TIMEOUT = 300000;
+
+    private static byte[] slaveJar;
+
     @Override
     public void launch(SlaveComputer slaveComputer, TaskListener taskListener)
             throws IOException, InterruptedException {
@@ -43,66 +47,25 @@ public class OpenShiftComputerLauncher extends ComputerLauncher {
         LOGGER.info("Checking availability of computer " + computer.getNode());
         String hostName = computer.getNode().getHostName();
         LOGGER.info("Checking SSH access to application " + hostName);
+        // The user for the SSH connection is the application uuid
+        String username = computer.getNode().getUuid();
         try {
-            final JSch jsch = new JSch();
-            java.util.Properties config = new java.util.Properties();
-            config.put("StrictHostKeyChecking", "no");
-
-            // Add the private key location
-            jsch.addIdentity(OpenShiftCloud.get().getPrivateKey()
-                    .getAbsolutePath());
-
-            // The user for the SSH connection is the application uuid
-            String username = computer.getNode().getUuid();
-            LOGGER.info("Connecting via SSH '" + username + "' '" + hostName + "' '" + OpenShiftCloud.get().getPrivateKey()
-                    .getAbsolutePath() + "'");
-            final Session sess = jsch.getSession(username, hostName, 22);
-            sess.setConfig(config);
-            sess.connect();
-            LOGGER.info("Connected via SSH.");
+            // Reuses the gear's session if one is still alive
+            long start = System.currentTimeMillis();
+            Session sess = SshSessionManager.get().getSession(username, hostName);
+            ProvisioningMetrics.get().recordSince(ProvisioningMetrics.Stage.SSH_CONNECT, start);
+            computer.getNode().markTimeline(ProvisioningTimeline.Event.SSH_CONNECTED);
 
             PrintStream logger = taskListener.getLogger();
             logger.println("Attempting to connect slave...");
-            logger.println("Transferring slave.jar file...");
-
-            // A command for the initial slave setup
-            StringBuilder execCommand = new StringBuilder();
-            execCommand.append("mkdir -p $OPENSHIFT_DATA_DIR/jenkins")
-                    .append(" && cd $OPENSHIFT_DATA_DIR/jenkins")
-                    .append(" && rm -f slave.jar").append(" && wget -q --no-check-certificate https://")
-                    .append(getGearDNS(hostName))
-                    .append("/jnlpJars/slave.jar");
-
-            String command = execCommand.toString();
-            LOGGER.info("Exec " + command);
-
-            // Open an execution channel that supports SSH agent forwarding
-            Channel channel = sess.openChannel("exec");
-            ((ChannelExec) channel).setCommand(command);
-            channel.connect();
-
-            // Wait for the channel to close
-            while (true) {
-                if (channel.isClosed()) {
-                    break;
-                }
-                try {
-                    Thread.sleep(1000);
-                } catch (Exception ee) {
-                }
-            }
-            int result = channel.getExitStatus();
-            if (result != 0) {
-                LOGGER.warning("Download of slave.jar failed.  Return code = " + result);
-                throw new IOException(
-                        "Download of slave.jar failed.  Return code = "
-                                + result);
-            }
-            channel.disconnect();
+            start = System.currentTimeMillis();
+            transferSlaveJar(sess, logger);
+            ProvisioningMetrics.get().recordSince(ProvisioningMetrics.Stage.SLAVE_JAR_TRANSFER, start);
 
             // Execute the slave.jar to establish a connection
             // Make sure to enable SSH agent forwarding
             logger.println("Executing slave jar to make connection...");
+            start = System.currentTimeMillis();
             final Channel slaveChannel = sess.openChannel("exec");
             String sshWrapperPath = "/usr/libexec/openshift/cartridges/jenkins/bin/git_ssh_wrapper.sh";
             ((ChannelExec) slaveChannel).setEnv("GIT_SSH", sshWrapperPath);
@@ -118,8 +81,8 @@ public class OpenShiftComputerLauncher extends ComputerLauncher {
             OutputStream clientInput = slaveChannel.getOutputStream();
             slaveChannel.connect();
             if (slaveChannel.isClosed()) {
-                LOGGER.severe("Slave connection terminated early with exit = "
-                        + channel.getExitStatus());
+                throw new IOException("Slave connection terminated early with exit = "
+                        + slaveChannel.getExitStatus());
             }
 
             computer.setChannel(serverOutput, clientInput, taskListener,
@@ -127,30 +90,67 @@ public class OpenShiftComputerLauncher extends ComputerLauncher {
 
                         public void onClosed(hudson.remoting.Channel channel,
                                              IOException cause) {
+                            // Keep the session for a quick relaunch
                             slaveChannel.disconnect();
-                            sess.disconnect();
                         }
                     });
 
+            ProvisioningMetrics.get().recordSince(ProvisioningMetrics.Stage.CHANNEL_UP, start);
+            computer.getNode().markTimeline(ProvisioningTimeline.Event.CHANNEL_UP);
             LOGGER.info("Slave connected.");
             logger.flush();
         } catch (JSchException e) {
-            e.printStackTrace();
-            throw new IOException(e);
+            LOGGER.log(Level.WARNING, "Failed to launch builder " + computer.getName(), e);
+            e.printStackTrace(taskListener.error("Failed to connect to " + hostName));
+            // Start over with a fresh session next time
+            SshSessionManager.get().close(username);
+            throw new IOException("Failed to connect to " + hostName, e);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to launch builder " + computer.getName(), e);
+            SshSessionManager.get().close(username);
+            throw e;
+        }
+    }
+
+    /**
+     * Streams the master's slave.jar to the builder over the SSH session,
+     * unless the copy already on the gear has the same checksum.
+     */
+    protected void transferSlaveJar(Session sess, PrintStream logger)
+            throws IOException, InterruptedException {
+        byte[] jar = getSlaveJar();
+        String checksum = DigestUtils.md5Hex(jar);
+
+        String remote = SshCommandExecutor.execute(sess, "mkdir -p $OPENSHIFT_DATA_DIR/jenkins"
+                + " && cd $OPENSHIFT_DATA_DIR/jenkins"
+                + " && (md5sum slave.jar 2>/dev/null || true)", null, EXEC_TIMEOUT)
+                .getStdout().trim();
+        if (remote.startsWith(checksum)) {
+            LOGGER.info("slave.jar on the builder is up to date (" + checksum + ")");
+            logger.println("slave.jar is up to date.");
+            return;
+        }
+
+        logger.println("Transferring slave.jar file...");
+        SshCommandExecutor.Result result = SshCommandExecutor.execute(sess,
+                "cd $OPENSHIFT_DATA_DIR/jenkins"
+                + " && cat > slave.jar.tmp && mv -f slave.jar.tmp slave.jar", jar, EXEC_TIMEOUT);
+        if (result.getExitStatus() != 0) {
+            LOGGER.warning("Transfer of slave.jar failed.  Return code = "
+                    + result.getExitStatus() + ": " + result.getStderr());
+            throw new IOException(
+                    "Transfer of slave.jar failed.  Return code = "
+                            + result.getExitStatus());
         }
+        LOGGER.info("Transferred " + jar.length + " bytes of slave.jar (" + checksum + ")");
     }
 
-    protected String getGearDNS(String hostname) throws IOException {
-        StringTokenizer tokenizer = new StringTokenizer(hostname, "-");
-        tokenizer.nextToken();
-        String currentDns = tokenizer.nextToken();
-        while (tokenizer.hasMoreTokens()) {
-            currentDns = currentDns + "-" + tokenizer.nextToken();
+    private static synchronized byte[] getSlaveJar() throws IOException {
+        // The jar can't change while the master runs, so read it only once
+        if (slaveJar == null) {
+            slaveJar = Hudson.getInstance().getJnlpJars("slave.jar").readFully();
         }
-        String gearDns = System.getenv("OPENSHIFT_GEAR_DNS");
-        tokenizer = new StringTokenizer(gearDns, "-");
-        currentDns = tokenizer.nextToken() + "-" + currentDns;
-        return currentDns;
+        return slaveJar;
     }
 
     public Descriptor<ComputerLauncher> getDescriptor() {
@@ -0,0 +1,93 @@
+package hudson.plugins.openshift;
+
+import hudson.model.Hudson;
+import hudson.model.Queue;
+import hudson.slaves.AbstractCloudComputer;
+import hudson.slaves.OfflineCause;
+import hudson.slaves.RetentionStrategy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hibernates idle builders instead of destroying them.
+ * <p/>
+ * After the idle time to live a builder's channel is disconnected while its
+ * gear stays allocated (and stopped, as builder apps always are). Queue
+ * demand the builder can serve reconnects it, skipping creation and DNS.
+ * Builders hibernated for longer than the cloud's hibernation time to live,
+ * or needed by the capacity ledger, are destroyed.
+ */
+public class OpenShiftRetentionStrategy extends RetentionStrategy<AbstractCloudComputer> {
+    private static final Logger LOGGER = Logger
+            .getLogger(OpenShiftRetentionStrategy.class.getName());
+
+    private final int idleMinutes;
+
+    public OpenShiftRetentionStrategy(int idleMinutes) {
+        this.idleMinutes = idleMinutes;
+    }
+
+    public int getIdleMinutes() {
+        return idleMinutes;
+    }
+
+    @Override
+    public synchronized long check(AbstractCloudComputer c) {
+        if (!(c.getNode() instanceof OpenShiftSlave))
+            return 1;
+        OpenShiftSlave slave = (OpenShiftSlave) c.getNode();
+        // The pipeline adds nodes before connecting them; leave those to it
+        if (ProvisioningPipeline.isInFlight(slave.getNodeName()))
+            return 1;
+
+        if (c.isOnline()) {
+            long idle = System.currentTimeMillis() - c.getIdleStartMilliseconds();
+            if (c.isIdle() && idle > TimeUnit.MINUTES.toMillis(idleMinutes)) {
+                LOGGER.info("Hibernating idle builder " + c.getName());
+                slave.hibernate();
+                c.disconnect(new Hibernated());
+            }
+        } else if (!c.isConnecting()) {
+            // Also covers builders left offline, e.g. across a restart
+            slave.markHibernated();
+            OpenShiftCloud cloud = OpenShiftCloud.get();
+            long hibernated = System.currentTimeMillis() - slave.getHibernatedSince();
+            if (cloud != null && hibernated > TimeUnit.MINUTES.toMillis(
+                    cloud.getHibernationTimeToLive())) {
+                LOGGER.info("Destroying builder " + c.getName() + " after "
+                        + TimeUnit.MILLISECONDS.toMinutes(hibernated) + " minutes of hibernation");
+                try {
+                    slave.terminate();
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to terminate " + c.getName(), e);
+                }
+            } else if (hasDemand(slave)) {
+                LOGGER.info("Waking hibernated builder " + c.getName() + " for queued work");
+                slave.resume();
+                slave.startTimeline(ProvisioningTimeline.Origin.HIBERNATED);
+                c.connect(false);
+            }
+        }
+        return 1;
+    }
+
+    private boolean hasDemand(OpenShiftSlave slave) {
+        for (Queue.BuildableItem item : Hudson.getInstance().getQueue().getBuildableItems()) {
+            if (slave.canTake(item) == null)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Offline cause of hibernated builders.
+     */
+    public static class Hibernated extends OfflineCause {
+        @Override
+        public String toString() {
+            return "Builder hibernated after being idle";
+        }
+    }
+}
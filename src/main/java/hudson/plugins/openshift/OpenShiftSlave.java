@@ -12,15 +12,11 @@ import hudson.model.Queue;
 import hudson.model.TaskListener;
 import hudson.slaves.AbstractCloudComputer;
 import hudson.slaves.AbstractCloudSlave;
-import hudson.slaves.CloudRetentionStrategy;
 import hudson.slaves.NodeProperty;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.util.Collections;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,6 +32,11 @@ public class OpenShiftSlave extends AbstractCloudSlave {
     private final String builderPlatform;
     private final long builderTimeout;
     private String uuid;
+    private transient IStandaloneCartridge cartridge;
+    private transient String hostName;
+    // Persisted so a restart doesn't reset the hibernation time to live
+    private volatile long hibernatedSince;
+    private transient ProvisioningTimeline timeline;
 
     /**
      * The name of the slave should be the 'sanitized version of the framework
@@ -49,7 +50,7 @@ public class OpenShiftSlave extends AbstractCloudSlave {
                           String label, long builderTimeout, int executors, int slaveIdleTimeToLive) throws FormException, IOException {
         super(name, "Builder for " + label, null, executors, Mode.NORMAL,
                 label, new OpenShiftComputerLauncher(),
-                new CloudRetentionStrategy(slaveIdleTimeToLive), Collections
+                new OpenShiftRetentionStrategy(slaveIdleTimeToLive), Collections
                         .<NodeProperty<?>>emptyList()
         );
 
@@ -92,51 +93,127 @@ public class OpenShiftSlave extends AbstractCloudSlave {
             LOGGER.info("Closing the SSH channel...");
             getComputer().getChannel().close();
         }
+        SshSessionManager.get().close(uuid);
 
-        LOGGER.info("Terminating OpenShift application...");
-        terminateApp();
+        LOGGER.info("Scheduling termination of OpenShift application...");
+        OpenShiftCloud.get().getTerminationService().terminate(name);
     }
 
-    protected IStandaloneCartridge getCartridge(IOpenShiftConnection connection) throws OpenShiftException {
+    /**
+     * Starts recording a new provisioning timeline for this builder.
+     */
+    synchronized void startTimeline(ProvisioningTimeline.Origin origin) {
+        timeline = new ProvisioningTimeline(origin);
+        timeline.mark(ProvisioningTimeline.Event.PROVISION);
+    }
+
+    /**
+     * Records that the given provisioning stage just completed.
+     */
+    synchronized void markTimeline(ProvisioningTimeline.Event event) {
+        if (timeline == null) {
+            timeline = new ProvisioningTimeline(ProvisioningTimeline.Origin.REUSED);
+        }
+        timeline.mark(event);
+    }
+
+    /**
+     * Hands the provisioning timeline to the build about to run, or returns
+     * null if nothing was recorded since the previous build took it.
+     */
+    synchronized ProvisioningTimeline takeTimeline() {
+        ProvisioningTimeline taken = timeline;
+        timeline = null;
+        return taken;
+    }
+
+    /**
+     * Returns whether this builder is hibernated, i.e. disconnected while its
+     * gear stays allocated.
+     */
+    public boolean isHibernated() {
+        return hibernatedSince > 0;
+    }
+
+    /**
+     * Returns when this builder was hibernated, 0 if it isn't.
+     */
+    public long getHibernatedSince() {
+        return hibernatedSince;
+    }
+
+    /**
+     * Puts this builder to sleep; its computer is disconnected by the caller.
+     * The gear's application is already stopped, so nothing needs to change
+     * on the broker.
+     */
+    void hibernate() {
+        hibernatedSince = System.currentTimeMillis();
+        SshSessionManager.get().close(uuid);
+        persist();
+    }
+
+    /**
+     * Marks an offline builder as hibernated, unless it already is.
+     */
+    void markHibernated() {
+        if (hibernatedSince == 0) {
+            hibernatedSince = System.currentTimeMillis();
+            persist();
+        }
+    }
+
+    /**
+     * Wakes this builder up; its computer is reconnected by the caller. The
+     * UUID and host name are still known, so creation and DNS are skipped.
+     */
+    void resume() {
+        if (hibernatedSince != 0) {
+            hibernatedSince = 0;
+            persist();
+        }
+    }
+
+    private void persist() {
+        if (Hudson.getInstance().getNode(name) != this)
+            return;
+        try {
+            Hudson.getInstance().save();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to save the hibernation state of " + name, e);
+        }
+    }
+
+    /**
+     * Returns the cartridge of this builder, resolving it only once per
+     * builder lifetime.
+     */
+    protected IStandaloneCartridge getCartridge() throws IOException, OpenShiftException {
+        if (cartridge == null) {
+            cartridge = resolveCartridge();
+        }
+        return cartridge;
+    }
+
+    private IStandaloneCartridge resolveCartridge() throws IOException, OpenShiftException {
+        CartridgeCatalog catalog = OpenShiftCloud.get().getCartridgeCatalog();
 
         if(applicationUUID!=null && !applicationUUID.equals("")) {
             // new build configs provide the application uuid for cloning
             IApplication baseApp = Util.getApplicationFromUuid(applicationUUID);
             if(baseApp==null) {
-                throw new OpenShiftException("Could not locate application with UUID "+applicationUUID);
+                throw new BuilderConfigurationException("Could not locate application with UUID "+applicationUUID);
             }
             if(baseApp.getCartridge().getUrl()!=null) {
                 // downloadable cartridge
                 return new StandaloneCartridge(baseApp.getCartridge().getName(), baseApp.getCartridge().getUrl());
             } else {
                 // cartridge from repository
-                String cartridgeType=baseApp.getCartridge().getName();
-                List<IStandaloneCartridge> cartridges = connection.getStandaloneCartridges();
-                for (IStandaloneCartridge cartridge : cartridges) {
-                  if (cartridge.getName().equals(cartridgeType)) {
-                    return cartridge;
-                  }
-                }
-                throw new OpenShiftException("Cartridge for " + cartridgeType + " not found");
+                return catalog.getStandaloneCartridge(baseApp.getCartridge().getName());
             }
         } else {
             // old configs provided the builder type.
-            String targetCartridgeName = builderType.replace("redhat-", "");
-            List<IStandaloneCartridge> cartridges = connection.getStandaloneCartridges();
-            for (IStandaloneCartridge cartridge : cartridges) {
-                if (cartridge.getName().equals(targetCartridgeName)) {
-                    return cartridge;
-                }
-            }
-            throw new OpenShiftException("Cartridge for " + targetCartridgeName + " not found");
-        }
-    }
-
-    private void terminateApp() {
-        try {
-            getBuilderApplication().destroy();
-        } catch (Exception e) {
-            LOGGER.log(Level.WARNING, "Unable to terminate builder application", e);
+            return catalog.getStandaloneCartridge(builderType.replace("redhat-", ""));
         }
     }
 
@@ -153,12 +230,16 @@ public class OpenShiftSlave extends AbstractCloudSlave {
     }
 
     public String getHostName() throws IOException {
+        // The gear's ssh host doesn't change during the builder's lifetime
+        if (hostName != null)
+            return hostName;
+
         try {
             IApplication app = getBuilderApplication();
 
             String url = null;
 
-            String type = getCartridge(OpenShiftCloud.get().getOpenShiftConnection()).getName();
+            String type = getCartridge().getName();
 
             for (IGearGroup gearGroup : app.getGearGroups()) {
                 for(ICartridge cart : gearGroup.getCartridges()) {
@@ -179,6 +260,7 @@ public class OpenShiftSlave extends AbstractCloudSlave {
 
             url = url.replace("/", "");
 
+            hostName = url;
             return url;
         } catch (Exception e) {
             throw new IOException("Unable to find application url for " + name, e);
@@ -186,8 +268,31 @@ public class OpenShiftSlave extends AbstractCloudSlave {
     }
 
     public void connect(boolean delayDNS) throws IOException {
+        connect(delayDNS, -1);
+    }
+
+    /**
+     * Resolves the builder's gear and waits for its host name to resolve,
+     * giving up at the given deadline (a time in ms, -1 for none) at the
+     * latest. Waiting stops early once the queue is empty.
+     */
+    public void connect(boolean delayDNS, long deadline) throws IOException {
+        connect(delayDNS, deadline, new DnsReadinessProbe() {
+            @Override
+            protected boolean isWanted() {
+                return isBuildRunning();
+            }
+        });
+    }
+
+    /**
+     * Like {@link #connect(boolean, long)}, waiting for DNS with the given
+     * probe.
+     */
+    void connect(boolean delayDNS, long deadline, DnsReadinessProbe probe) throws IOException {
         LOGGER.info("Connecting to slave " + name + "...");
 
+        long start = System.currentTimeMillis();
         try {
             // Force a refresh of the user info to get the application UUID
             IApplication app = getBuilderApplication();
@@ -198,43 +303,24 @@ public class OpenShiftSlave extends AbstractCloudSlave {
             uuid = app.getGearGroups().iterator().next().getGears().iterator().next().getId();
 
             LOGGER.info("Established UUID = " + uuid);
+            ProvisioningMetrics.get().recordSince(ProvisioningMetrics.Stage.UUID_RESOLUTION, start);
         } catch (Exception e) {
             throw new IOException("Unable to connect to application " + name, e);
         }
 
-        // Sleep for 5 seconds for DNS to propagate to minimize cache penalties
-        if (delayDNS) {
-            try {
-                Thread.sleep(5000);
-            } catch (InterruptedException e) {
-                // Ignore
-            }
-        }
-
-        long startTime = System.currentTimeMillis();
-        long currentTime = startTime;
-        // Wait until DNS is resolvable
-        while (isBuildRunning() && (builderTimeout == -1 || currentTime - startTime < builderTimeout)) {
-            try {
-                String hostname = getHostName();
-                LOGGER.info("Checking to see if slave DNS for " + hostname + " is resolvable ... (timeout: " + builderTimeout + "ms)");
-                InetAddress address = InetAddress.getByName(hostname);
-                LOGGER.info("Slave DNS resolved - " + address);
-                break;
-            } catch (UnknownHostException e) {
-                LOGGER.info("Slave DNS not propagated yet, retrying... (remaining: " + (builderTimeout - (currentTime - startTime)) + "ms)");
-                try {
-                    Thread.sleep(5000);
-                } catch (InterruptedException ie) {
-                    // Ignore interruptions
-                }
-                currentTime = System.currentTimeMillis();
-            }
+        // Wait until DNS is resolvable; the host name doesn't change while
+        // waiting so look it up only once
+        String hostname = getHostName();
+        long timeout = builderTimeout >= 0 ? builderTimeout
+                : OpenShiftCloud.get().getTimeoutBudgets().getDns();
+        if (deadline >= 0) {
+            timeout = Math.max(0, Math.min(timeout, deadline - System.currentTimeMillis()));
         }
-
-        if (builderTimeout >= 0 && currentTime - startTime >= builderTimeout) {
-            LOGGER.warning("Slave DNS not propagated. Timing out.");
-            throw new IOException("Slave DNS not propagated. Timing out.");
+        LOGGER.info("Checking to see if slave DNS for " + hostname + " is resolvable ... (timeout: " + timeout + "ms)");
+        start = System.currentTimeMillis();
+        if (probe.await(hostname, timeout, delayDNS) != null) {
+            ProvisioningMetrics.get().recordSince(ProvisioningMetrics.Stage.DNS_READINESS, start);
+            markTimeline(ProvisioningTimeline.Event.DNS_READY);
         }
     }
 
@@ -258,51 +344,81 @@ public class OpenShiftSlave extends AbstractCloudSlave {
         connect(true);
     }
 
-    private void createApp() throws IOException, OpenShiftException {
+    void createApp() throws IOException, OpenShiftException {
       IOpenShiftConnection connection = OpenShiftCloud.get().getOpenShiftConnection();
       IUser user = connection.getUser();
-      IStandaloneCartridge cartridge = getCartridge(OpenShiftCloud.get().getOpenShiftConnection());
+      long start = System.currentTimeMillis();
+      IStandaloneCartridge cartridge = getCartridge();
+      ProvisioningMetrics.get().recordSince(ProvisioningMetrics.Stage.CARTRIDGE_LOOKUP, start);
 
       IDomain domain = user.getDomain(getNamespace());
-      List<IGearProfile> gearProfiles = domain.getAvailableGearProfiles();
-      IGearProfile gearProfile = gearProfiles.get(0);
-      for (IGearProfile profile : gearProfiles) {
-        if (profile.getName().equals(builderSize)) {
-          gearProfile = profile;
-        }
-      }
+      IGearProfile gearProfile = OpenShiftCloud.get().getCartridgeCatalog().getGearProfile(domain, builderSize);
 
       LOGGER.info("Creating builder application " + cartridge.getName() + " "
               + name + " " + user.getDomain(getNamespace()).getId() + " of size "
               + gearProfile.getName() + " in region "+(region==null?"default":region)+" ...");
 
       ApplicationScale scale = ApplicationScale.NO_SCALE;
-      if(builderPlatform.equalsIgnoreCase(Platform.WINDOWS.toString())) {
+      if(isScaled(builderPlatform)) {
           scale = ApplicationScale.SCALE;
       }
-      IApplication app = domain.createApplication(name, cartridge, scale, region, gearProfile);
+      start = System.currentTimeMillis();
+      IApplication app;
+      try {
+          app = domain.createApplication(name, cartridge, scale, region, gearProfile);
+      } catch (OpenShiftEndpointException e) {
+          // The broker refused; find out whether it's because we're out of gears
+          if (OpenShiftCloud.get().getCapacityLedger().isExhausted()) {
+              throw new CapacityLedger.QuotaExceededException(
+                      "No gears left to create builder application " + name, e);
+          }
+          throw e;
+      }
       //IApplication app = domain.createApplication(name, cartridge, scale, gearProfile);
+      ProvisioningMetrics.get().recordSince(ProvisioningMetrics.Stage.CREATE_APPLICATION, start);
+      OpenShiftCloud.get().getApplicationRegistry().register(app);
 
       // No reason to have app running on builder gear - just need it installed
       LOGGER.info("Stopping application on builder gear ...");
+      start = System.currentTimeMillis();
       app.stop();
+      ProvisioningMetrics.get().recordSince(ProvisioningMetrics.Stage.APP_STOP, start);
+      markTimeline(ProvisioningTimeline.Event.CREATE_APP);
     }
 
     private IApplication getBuilderApplication() {
-        IUser user;
         try {
-            user = OpenShiftCloud.get().getOpenShiftConnection().getUser();
+            // Asks the broker directly if it isn't indexed yet
+            return OpenShiftCloud.get().getApplicationRegistry().findByName(name);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-
-        return user.getDomain(getNamespace()).getApplicationByName(name);
     }
 
     public String getUuid() {
         return uuid;
     }
 
+    /**
+     * Returns how many gears this builder's application takes.
+     */
+    public int getGears() {
+        return getGears(builderPlatform);
+    }
+
+    /**
+     * Returns how many gears a builder for the given platform takes. Windows
+     * builders are scaled applications: the head gear with the load balancer
+     * plus a gear for the cartridge.
+     */
+    static int getGears(String platform) {
+        return isScaled(platform) ? 2 : 1;
+    }
+
+    private static boolean isScaled(String platform) {
+        return Platform.WINDOWS.toString().equalsIgnoreCase(platform);
+    }
+
     public enum Platform {
         WINDOWS("Windows"),
         LINUX("Linux");
@@ -6,13 +6,58 @@ import hudson.model.Describable;
 import hudson.model.Descriptor;
 import hudson.model.Hudson;
 
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+
 @Extension
 public class PluginImpl extends Plugin implements Describable<PluginImpl> {
+    private static final Logger LOGGER = Logger.getLogger(PluginImpl.class
+            .getName());
+
     public DescriptorImpl getDescriptor() {
         return (DescriptorImpl) Hudson.getInstance().getDescriptorOrDie(
                 getClass());
     }
 
+    /**
+     * The only timeout the openshift client takes, for every socket it opens.
+     * It must outlast the slowest broker request; the per-request budgets are
+     * enforced by the broker proxy.
+     */
+    static final String SYSPROP_OPENSHIFT_HTTPCLIENT_TIMEOUT = "com.openshift.httpclient.timeout";
+
+    @Override
+    public void start() throws Exception {
+        // Set once, and left alone if given on the command line
+        if (System.getProperty(SYSPROP_OPENSHIFT_HTTPCLIENT_TIMEOUT) == null) {
+            System.setProperty(SYSPROP_OPENSHIFT_HTTPCLIENT_TIMEOUT,
+                    Long.toString(OpenShiftCloud.DEFAULT_CREATE_APP_TIMEOUT * 1000L));
+        }
+        BrokerProxySelector.install();
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ProvisioningMetrics metrics = ProvisioningMetrics.get();
+            if (!server.isRegistered(metrics.getObjectName())) {
+                server.registerMBean(metrics, metrics.getObjectName());
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Unable to register provisioning metrics MBean", e);
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ProvisioningMetrics metrics = ProvisioningMetrics.get();
+        if (server.isRegistered(metrics.getObjectName())) {
+            server.unregisterMBean(metrics.getObjectName());
+        }
+    }
+
     @Extension
     public static final class DescriptorImpl extends Descriptor<PluginImpl> {
         @Override
@@ -0,0 +1,193 @@
+package hudson.plugins.openshift;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+
+/**
+ * Latencies of the individual provisioning stages and counts of provisioning
+ * mishaps, for finding where provisioning time goes.
+ * <p/>
+ * Exposed over JMX (see {@link PluginImpl}) and as plain text by
+ * {@link MetricsAction}.
+ */
+public class ProvisioningMetrics implements DynamicMBean {
+    public static final String OBJECT_NAME = "hudson.plugins.openshift:type=ProvisioningMetrics";
+
+    private static final ProvisioningMetrics INSTANCE = new ProvisioningMetrics();
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * The timed provisioning stages.
+     */
+    public enum Stage {
+        BROKER_CONNECT, CARTRIDGE_LOOKUP, CREATE_APPLICATION, APP_STOP,
+        UUID_RESOLUTION, DNS_READINESS, SSH_CONNECT, SLAVE_JAR_TRANSFER, CHANNEL_UP,
+        QUEUE_TO_START
+    }
+
+    /**
+     * The counted provisioning events.
+     */
+    public enum Counter {
+        RETRIES, FAILURES, CANCELLATIONS, CAPACITY_REFUSALS, ORPHANS_COLLECTED
+    }
+
+    private final Map<Stage, LatencyHistogram> stages = new EnumMap<Stage, LatencyHistogram>(Stage.class);
+    private final Map<Counter, AtomicLong> counters = new EnumMap<Counter, AtomicLong>(Counter.class);
+
+    private ProvisioningMetrics() {
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new LatencyHistogram());
+        }
+        for (Counter counter : Counter.values()) {
+            counters.put(counter, new AtomicLong());
+        }
+    }
+
+    public static ProvisioningMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records a stage that started at the given time (in ms) and just ended.
+     */
+    public void recordSince(Stage stage, long start) {
+        stages.get(stage).record(System.currentTimeMillis() - start);
+    }
+
+    public void increment(Counter counter) {
+        counters.get(counter).incrementAndGet();
+    }
+
+    public LatencyHistogram getStage(Stage stage) {
+        return stages.get(stage);
+    }
+
+    public long getCount(Counter counter) {
+        return counters.get(counter).get();
+    }
+
+    public ObjectName getObjectName() throws Exception {
+        return new ObjectName(OBJECT_NAME);
+    }
+
+    /**
+     * Writes all metrics as <code>name{labels} value</code> lines.
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = stages.get(stage);
+            String labels = "{stage=\"" + name(stage) + "\"}";
+            text.append("openshift_stage_count").append(labels).append(' ').append(histogram.getCount()).append('\n');
+            text.append("openshift_stage_total_ms").append(labels).append(' ').append(histogram.getTotal()).append('\n');
+            text.append("openshift_stage_max_ms").append(labels).append(' ').append(histogram.getMax()).append('\n');
+            for (int percentile : new int[]{50, 95, 99}) {
+                text.append("openshift_stage_ms{stage=\"").append(name(stage))
+                        .append("\",quantile=\"0.").append(percentile).append("\"} ")
+                        .append(histogram.getPercentile(percentile)).append('\n');
+            }
+        }
+        for (Counter counter : Counter.values()) {
+            text.append("openshift_").append(name(counter)).append("_total ")
+                    .append(counters.get(counter).get()).append('\n');
+        }
+        // For spotting thread leaks in soak runs
+        text.append("openshift_jvm_threads ").append(THREADS.getThreadCount()).append('\n');
+        text.append("openshift_jvm_threads_peak ").append(THREADS.getPeakThreadCount()).append('\n');
+        return text.toString();
+    }
+
+    private static String name(Enum<?> e) {
+        return e.name().toLowerCase(Locale.ENGLISH);
+    }
+
+    // JMX: one attribute per counter and per stage statistic, e.g.
+    // "retries" and "dns_readiness.p95"
+
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        for (Counter counter : Counter.values()) {
+            if (attribute.equals(name(counter)))
+                return counters.get(counter).get();
+        }
+        int dot = attribute.lastIndexOf('.');
+        if (dot > 0) {
+            for (Stage stage : Stage.values()) {
+                if (!attribute.substring(0, dot).equals(name(stage)))
+                    continue;
+                LatencyHistogram histogram = stages.get(stage);
+                String statistic = attribute.substring(dot + 1);
+                if (statistic.equals("count"))
+                    return histogram.getCount();
+                if (statistic.equals("mean"))
+                    return histogram.getMean();
+                if (statistic.equals("max"))
+                    return histogram.getMax();
+                if (statistic.equals("p50"))
+                    return histogram.getPercentile(50);
+                if (statistic.equals("p95"))
+                    return histogram.getPercentile(95);
+                if (statistic.equals("p99"))
+                    return histogram.getPercentile(99);
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    public void setAttribute(Attribute attribute) {
+        throw new UnsupportedOperationException("Metrics are read-only");
+    }
+
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // left out, as the contract asks
+            }
+        }
+        return list;
+    }
+
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException(actionName);
+    }
+
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        for (Counter counter : Counter.values()) {
+            attributes.add(new MBeanAttributeInfo(name(counter), "long",
+                    "Number of " + name(counter).replace('_', ' '), true, false, false));
+        }
+        for (Stage stage : Stage.values()) {
+            for (String statistic : new String[]{"count", "mean", "max", "p50", "p95", "p99"}) {
+                attributes.add(new MBeanAttributeInfo(name(stage) + "." + statistic, "long",
+                        statistic + " of " + name(stage).replace('_', ' ') + " (ms)",
+                        true, false, false));
+            }
+        }
+        return new MBeanInfo(getClass().getName(), "OpenShift provisioning metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+                null, new MBeanOperationInfo[0], null);
+    }
+}
@@ -0,0 +1,254 @@
+package hudson.plugins.openshift;
+
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.remoting.AsyncFutureImpl;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.Timer;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Walks a new builder through its provisioning stages (create app, stop app,
+ * resolve UUID, DNS, SSH handshake) off the NodeProvisioner thread, so that
+ * {@link OpenShiftCloud#provision} can hand back its planned nodes at once.
+ * <p/>
+ * All stages of a builder share the cloud's overall provisioning deadline.
+ */
+public class ProvisioningPipeline {
+    private static final Logger LOGGER = Logger
+            .getLogger(ProvisioningPipeline.class.getName());
+
+    private static final int POOL_SIZE = 10;
+    private static final int RETRY_LIMIT = 5;
+    private static final RetryPolicy RETRIES = new RetryPolicy(RETRY_LIMIT, 2000, 60000);
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+    private static final Set<String> IN_FLIGHT = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private static final Set<String> CANCELLED = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private static ExecutorService createExecutor() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ExceptionCatchingThreadFactory(new NamingThreadFactory(
+                        new DaemonThreadFactory(), "OpenShift provisioning")));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Submits the given (not yet created) builder to the pipeline. The
+     * returned future completes with the node once its computer is online.
+     * The caller must have reserved a gear for it in the
+     * {@link CapacityLedger}; the pipeline commits or releases it.
+     */
+    public static Future<Node> submit(OpenShiftCloud cloud,
+                                      OpenShiftSlave slave, Queue.Item item, String label) {
+        slave.startTimeline(ProvisioningTimeline.Origin.CREATED);
+        return new Stages(cloud, slave, item, label, false).start();
+    }
+
+    /**
+     * Submits a builder whose application already exists and resolves, such
+     * as a warm pool gear. Only the SSH handshake is left to do.
+     */
+    public static Future<Node> submitProvisioned(OpenShiftCloud cloud,
+                                                 OpenShiftSlave slave, Queue.Item item, String label) {
+        slave.startTimeline(ProvisioningTimeline.Origin.WARM_POOL);
+        return new Stages(cloud, slave, item, label, true).start();
+    }
+
+    /**
+     * Submits a hibernated builder. Its gear and host name are known, so only
+     * the channel is reconnected.
+     */
+    public static Future<Node> submitHibernated(OpenShiftCloud cloud,
+                                                OpenShiftSlave slave, Queue.Item item, String label) {
+        slave.resume();
+        slave.startTimeline(ProvisioningTimeline.Origin.HIBERNATED);
+        return new Stages(cloud, slave, item, label, true).start();
+    }
+
+    /**
+     * Returns whether the named builder is still being provisioned.
+     */
+    public static boolean isInFlight(String name) {
+        return IN_FLIGHT.contains(name);
+    }
+
+    /**
+     * Asks the pipeline to give up on the named builder. Builders whose
+     * application was not created yet are dropped and their gear reservation
+     * released before the next stage; created ones are brought online anyway
+     * so their gear isn't wasted, and left to the retention strategy.
+     */
+    public static void cancel(String name) {
+        if (IN_FLIGHT.contains(name)) {
+            LOGGER.info("Cancelling provisioning of builder " + name);
+            CANCELLED.add(name);
+        }
+    }
+
+    /**
+     * Runs the stages of one builder. A failed attempt is classified by the
+     * {@link RetryPolicy} and either rescheduled on the {@link Timer} after
+     * its backoff or given up on, so no pipeline thread waits between
+     * attempts.
+     */
+    private static class Stages implements Runnable {
+        private final OpenShiftCloud cloud;
+        private final OpenShiftSlave slave;
+        private final Queue.Item item;
+        private final String label;
+        private final boolean provisioned;
+        private final long deadline;
+        private final AsyncFutureImpl<Node> future = new AsyncFutureImpl<Node>();
+        private boolean created;
+        private int failures;
+
+        Stages(OpenShiftCloud cloud, OpenShiftSlave slave, Queue.Item item,
+               String label, boolean provisioned) {
+            this.cloud = cloud;
+            this.slave = slave;
+            this.item = item;
+            this.label = label;
+            this.provisioned = provisioned;
+            this.deadline = System.currentTimeMillis()
+                    + cloud.getTimeoutBudgets().getProvisioning();
+        }
+
+        Future<Node> start() {
+            CANCELLED.remove(slave.getNodeName());
+            IN_FLIGHT.add(slave.getNodeName());
+            EXECUTOR.execute(this);
+            return future;
+        }
+
+        public void run() {
+            if (CANCELLED.remove(slave.getNodeName()) && !provisioned && !created) {
+                LOGGER.info("Provisioning of builder " + slave.getNodeName() + " cancelled");
+                cloud.getCapacityLedger().release(slave.getGears());
+                IN_FLIGHT.remove(slave.getNodeName());
+                future.set(new CancellationException("Provisioning of "
+                        + slave.getNodeName() + " cancelled"));
+                return;
+            }
+            if (!provisioned) {
+                try {
+                    if (!created) {
+                        slave.createApp();
+                        created = true;
+                        cloud.getCapacityLedger().commit(slave.getGears());
+                    }
+                    slave.connect(true, deadline);
+                } catch (Exception e) {
+                    retryOrFail(e);
+                    return;
+                }
+            }
+
+            try {
+                if (Hudson.getInstance().getNode(slave.getNodeName()) != slave) {
+                    Hudson.getInstance().addNode(slave);
+                }
+
+                // Wait for the SSH handshake so the planned node only completes
+                // once its executors can actually take work
+                Computer computer = slave.toComputer();
+                if (computer == null) {
+                    throw new IOException("Builder " + slave.getNodeName() + " has no computer");
+                }
+                computer.connect(false).get(
+                        Math.max(0, deadline - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS);
+                // A launch can end without a channel, don't hand out a dead node
+                if (!computer.isOnline()) {
+                    throw new IOException("Builder " + slave.getNodeName()
+                            + " is offline after its launch");
+                }
+                LOGGER.info("Builder " + slave.getNodeName() + " is online");
+                future.set(slave);
+            } catch (Throwable t) {
+                LOGGER.log(Level.WARNING, "Builder " + slave.getNodeName()
+                        + " failed to come online, cancelling build", t);
+                ProvisioningMetrics.get().increment(ProvisioningMetrics.Counter.FAILURES);
+                cloud.cancelItem(item, slave.getNodeName(), label);
+                discard();
+                future.set(t);
+            } finally {
+                IN_FLIGHT.remove(slave.getNodeName());
+            }
+        }
+
+        /**
+         * Destroys the builder given up on; its gear is committed in the
+         * ledger and freed once the application is gone.
+         */
+        private void discard() {
+            String name = slave.getNodeName();
+            try {
+                if (Hudson.getInstance().getNode(name) == slave) {
+                    // Removes the node, then hands the application over
+                    slave.terminate();
+                    return;
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to remove builder " + name, e);
+            }
+            cloud.getTerminationService().terminate(name);
+        }
+
+        private void retryOrFail(Exception e) {
+            String name = slave.getNodeName();
+            cloud.invalidateOnFailure(e);
+            RetryPolicy.Fault fault = RetryPolicy.classify(e);
+            // Calls the breaker rejected don't count as attempts
+            if (!CircuitBreaker.isRejection(e)) {
+                failures++;
+            }
+            long delay = RETRIES.getDelay(Math.max(failures, 1));
+            if (!RETRIES.shouldRetry(fault, failures)
+                    || System.currentTimeMillis() + delay >= deadline) {
+                LOGGER.log(Level.WARNING, "Provisioning of builder " + name + " failed after "
+                        + failures + " attempts due to " + fault + " fault, cancelling build", e);
+                ProvisioningMetrics.get().increment(ProvisioningMetrics.Counter.FAILURES);
+                if (created) {
+                    discard();
+                } else {
+                    cloud.getCapacityLedger().release(slave.getGears());
+                }
+                cloud.cancelItem(item, name, label);
+                IN_FLIGHT.remove(name);
+                future.set(e);
+                return;
+            }
+
+            LOGGER.warning("Caught " + e + " (" + fault + " fault) while provisioning "
+                    + name + ". Will retry in " + delay + "ms, "
+                    + (RETRY_LIMIT - failures) + " more times before canceling build.");
+            ProvisioningMetrics.get().increment(ProvisioningMetrics.Counter.RETRIES);
+            Timer.get().schedule(new Runnable() {
+                public void run() {
+                    EXECUTOR.execute(Stages.this);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package hudson.plugins.openshift;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the points in time a builder passed the provisioning stages at,
+ * until the next build on it picks them up as a
+ * {@link ProvisioningTimelineAction}.
+ */
+public class ProvisioningTimeline {
+    /**
+     * Where the builder running a build came from.
+     */
+    public enum Origin {
+        CREATED("newly created"),
+        WARM_POOL("taken from the warm pool"),
+        HIBERNATED("woken from hibernation"),
+        REUSED("reused");
+
+        private final String description;
+
+        Origin(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    /**
+     * The recorded provisioning stages.
+     */
+    public enum Event {
+        PROVISION("Provisioning started"),
+        CREATE_APP("Builder application created"),
+        DNS_READY("Builder host name resolved"),
+        SSH_CONNECTED("SSH handshake done"),
+        CHANNEL_UP("slave.jar started");
+
+        private final String description;
+
+        Event(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    private final Origin origin;
+    private final List<ProvisioningTimelineAction.Entry> entries = new ArrayList<ProvisioningTimelineAction.Entry>();
+
+    public ProvisioningTimeline(Origin origin) {
+        this.origin = origin;
+    }
+
+    public Origin getOrigin() {
+        return origin;
+    }
+
+    /**
+     * Returns whether no stage was recorded yet.
+     */
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Records that the given stage just completed.
+     */
+    public synchronized void mark(Event event) {
+        entries.add(new ProvisioningTimelineAction.Entry(event.getDescription(),
+                System.currentTimeMillis()));
+    }
+
+    /**
+     * Builds the action for a build that entered the queue and got its
+     * executor at the given times (in ms).
+     */
+    public synchronized ProvisioningTimelineAction toAction(long queuedAt, long startedAt) {
+        List<ProvisioningTimelineAction.Entry> all = new ArrayList<ProvisioningTimelineAction.Entry>();
+        if (queuedAt > 0) {
+            all.add(new ProvisioningTimelineAction.Entry("Entered the queue", queuedAt));
+        }
+        all.addAll(entries);
+        all.add(new ProvisioningTimelineAction.Entry("Executor assigned", startedAt));
+        return new ProvisioningTimelineAction(origin.getDescription(), all);
+    }
+}
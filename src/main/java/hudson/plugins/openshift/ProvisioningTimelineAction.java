@@ -0,0 +1,123 @@
+package hudson.plugins.openshift;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Executor;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.model.queue.WorkUnit;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Shows on a build how long its OpenShift builder took to get ready, stage by
+ * stage, and whether the builder was created for it or already there.
+ */
+public class ProvisioningTimelineAction implements Action {
+    private final String origin;
+    private final List<Entry> entries;
+
+    public ProvisioningTimelineAction(String origin, List<Entry> entries) {
+        this.origin = origin;
+        this.entries = entries;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Returns the time (in ms) from the first to the last entry.
+     */
+    public long getTotal() {
+        if (entries.isEmpty())
+            return 0;
+        return entries.get(entries.size() - 1).getTime() - entries.get(0).getTime();
+    }
+
+    /**
+     * Returns the time from the first to the last entry, for display.
+     */
+    public String getTotalString() {
+        return hudson.Util.getTimeSpanString(getTotal());
+    }
+
+    /**
+     * Returns the time (in ms) from the previous entry to the given one.
+     */
+    public long getElapsed(Entry entry) {
+        int i = entries.indexOf(entry);
+        return i <= 0 ? 0 : entry.getTime() - entries.get(i - 1).getTime();
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "OpenShift Provisioning Timeline";
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+
+    /**
+     * A named point in time.
+     */
+    public static class Entry {
+        private final String name;
+        private final long time;
+
+        public Entry(String name, long time) {
+            this.name = name;
+            this.time = time;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getTime() {
+            return time;
+        }
+    }
+
+    /**
+     * Attaches the builder's timeline to builds starting on OpenShift
+     * builders.
+     */
+    @Extension
+    public static class Attacher extends RunListener<Run<?, ?>> {
+        @Override
+        public void onStarted(Run<?, ?> run, TaskListener listener) {
+            Executor executor = Executor.currentExecutor();
+            if (executor == null)
+                return;
+            Node node = executor.getOwner().getNode();
+            if (!(node instanceof OpenShiftSlave))
+                return;
+
+            long queuedAt = 0;
+            WorkUnit workUnit = executor.getCurrentWorkUnit();
+            if (workUnit != null) {
+                Queue.BuildableItem item = workUnit.context.item;
+                queuedAt = item.getInQueueSince();
+                ProvisioningMetrics.get().recordSince(ProvisioningMetrics.Stage.QUEUE_TO_START, queuedAt);
+            }
+            // A builder kept from an earlier build has nothing new to show
+            ProvisioningTimeline timeline = ((OpenShiftSlave) node).takeTimeline();
+            if (timeline == null || timeline.isEmpty())
+                return;
+            run.addAction(timeline.toAction(queuedAt, System.currentTimeMillis()));
+        }
+    }
+}
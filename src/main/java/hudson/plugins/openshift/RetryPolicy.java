@@ -0,0 +1,157 @@
+package hudson.plugins.openshift;
+
+import hudson.model.Descriptor.FormException;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.jcraft.jsch.JSchException;
+import com.openshift.client.InvalidCredentialsOpenShiftException;
+import com.openshift.client.NotFoundOpenShiftException;
+
+/**
+ * Decides whether and when a failed provisioning step is retried.
+ * <p/>
+ * Failures are classified into {@link Fault}s. Quota and configuration faults
+ * won't go away by retrying and fail fast; broker and network faults are
+ * retried with exponential backoff and jitter. Callers schedule the retry
+ * themselves instead of sleeping on their thread.
+ */
+public class RetryPolicy {
+    private static final Random RANDOM = new Random();
+
+    /**
+     * The kinds of provisioning failures.
+     */
+    public enum Fault {
+        /** The broker failed or rejected the request for a transient reason. */
+        BROKER(true),
+        /** The broker or the gear couldn't be reached. */
+        NETWORK(true),
+        /** The account is out of gears. */
+        QUOTA(false),
+        /** Credentials, cartridge, gear size or job setup are wrong. */
+        CONFIGURATION(false);
+
+        private final boolean retryable;
+
+        Fault(boolean retryable) {
+            this.retryable = retryable;
+        }
+
+        public boolean isRetryable() {
+            return retryable;
+        }
+    }
+
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final ConcurrentMap<String, Backoff> backoffs = new ConcurrentHashMap<String, Backoff>();
+
+    /**
+     * @param maxAttempts how many times a retryable step is tried in total
+     * @param baseDelay the delay (in ms) before the first retry
+     * @param maxDelay the cap (in ms) of the exponential delay
+     */
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Classifies the given failure by the types in its cause chain; messages
+     * are never looked at, as they carry job and builder names. Failures
+     * nothing is known about are assumed to be transient broker faults.
+     */
+    public static Fault classify(Throwable failure) {
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof InvalidCredentialsOpenShiftException
+                    || t instanceof NotFoundOpenShiftException
+                    || t instanceof BuilderConfigurationException
+                    || t instanceof FormException
+                    || t instanceof UnsupportedOperationException) {
+                return Fault.CONFIGURATION;
+            }
+            if (t instanceof CapacityLedger.QuotaExceededException) {
+                return Fault.QUOTA;
+            }
+        }
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof IOException || t instanceof JSchException
+                    || t instanceof BrokerProxy.BrokerTimeoutException) {
+                return Fault.NETWORK;
+            }
+        }
+        return Fault.BROKER;
+    }
+
+    /**
+     * Returns whether a step that failed with the given fault for the given
+     * number of times should be tried again.
+     */
+    public boolean shouldRetry(Fault fault, int failures) {
+        return fault.isRetryable() && failures < maxAttempts;
+    }
+
+    /**
+     * Returns the delay (in ms) before the retry following the given number
+     * of failures: half of the exponential delay plus a random share of the
+     * other half, so that builders failing together don't retry together.
+     */
+    public long getDelay(int failures) {
+        long delay = baseDelay << Math.min(Math.max(failures - 1, 0), 16);
+        delay = Math.min(delay, maxDelay);
+        long half = delay / 2;
+        synchronized (RANDOM) {
+            return half + (long) (RANDOM.nextDouble() * (delay - half));
+        }
+    }
+
+    /**
+     * Records that the given key (e.g. a label) has failed the given number
+     * of consecutive times and must not be tried for the given delay.
+     */
+    public void backOff(String key, int failures, long delay) {
+        backoffs.put(key, new Backoff(failures, System.currentTimeMillis() + delay));
+    }
+
+    /**
+     * Returns the number of consecutive failures recorded for the key.
+     */
+    public int getFailures(String key) {
+        Backoff backoff = backoffs.get(key);
+        return backoff == null ? 0 : backoff.failures;
+    }
+
+    /**
+     * Forgets the failures of the given key.
+     */
+    public void reset(String key) {
+        backoffs.remove(key);
+    }
+
+    /**
+     * Returns how long (in ms) the given key still has to back off, 0 if it
+     * may be tried now.
+     */
+    public long getRemainingDelay(String key) {
+        Backoff backoff = backoffs.get(key);
+        if (backoff == null)
+            return 0;
+        return Math.max(0, backoff.retryAt - System.currentTimeMillis());
+    }
+
+    private static class Backoff {
+        private final int failures;
+        private final long retryAt;
+
+        Backoff(int failures, long retryAt) {
+            this.failures = failures;
+            this.retryAt = retryAt;
+        }
+    }
+}
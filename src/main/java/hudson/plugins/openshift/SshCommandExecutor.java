@@ -0,0 +1,184 @@
+package hudson.plugins.openshift;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+/**
+ * Runs commands on a builder over an open JSch {@link Session}, on a small
+ * bounded pool of threads.
+ * <p/>
+ * Each command's future completes once its output has ended and its exit
+ * status has arrived, with standard output and standard error captured.
+ * JSch can't notify of the exit status, so the short gap between EOF and the
+ * status is polled. {@link #execute} blocks its caller on the future, as the
+ * launcher needs; {@link #submit} doesn't.
+ */
+public class SshCommandExecutor {
+    private static final Logger LOGGER = Logger
+            .getLogger(SshCommandExecutor.class.getName());
+
+    // How long to wait for the exit status once the output has ended
+    private static final long EXIT_STATUS_GRACE = 5000;
+
+    private static final int POOL_SIZE = 10;
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private static ExecutorService createExecutor() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ExceptionCatchingThreadFactory(new NamingThreadFactory(
+                        new DaemonThreadFactory(), "OpenShift SSH exec")));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Starts the command, feeding it the given input (may be null).
+     */
+    public static Future<Result> submit(Session session, String command, byte[] input)
+            throws JSchException {
+        return EXECUTOR.submit(new Command(session, command, input));
+    }
+
+    /**
+     * Runs the command and waits up to the given timeout (in ms), including
+     * any time queued behind other commands, for it to finish.
+     */
+    public static Result execute(Session session, String command, byte[] input,
+                                 long timeout) throws IOException, InterruptedException {
+        Command task;
+        try {
+            task = new Command(session, command, input);
+        } catch (JSchException e) {
+            throw new IOException("Unable to run " + command, e);
+        }
+        Future<Result> future = EXECUTOR.submit(task);
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            task.abort();
+            future.cancel(true);
+            throw new IOException("Timed out after " + timeout + "ms running " + command);
+        } catch (InterruptedException e) {
+            task.abort();
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to run " + command, e.getCause());
+        }
+    }
+
+    /**
+     * Outcome of a remote command.
+     */
+    public static class Result {
+        private final int exitStatus;
+        private final byte[] stdout;
+        private final byte[] stderr;
+
+        Result(int exitStatus, byte[] stdout, byte[] stderr) {
+            this.exitStatus = exitStatus;
+            this.stdout = stdout;
+            this.stderr = stderr;
+        }
+
+        public int getExitStatus() {
+            return exitStatus;
+        }
+
+        public String getStdout() {
+            return toString(stdout);
+        }
+
+        public String getStderr() {
+            return toString(stderr);
+        }
+
+        private static String toString(byte[] data) {
+            try {
+                return new String(data, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    private static class Command implements Callable<Result> {
+        private final ChannelExec channel;
+        private final String command;
+        private final byte[] input;
+
+        Command(Session session, String command, byte[] input) throws JSchException {
+            this.channel = (ChannelExec) session.openChannel("exec");
+            this.command = command;
+            this.input = input;
+        }
+
+        public Result call() throws Exception {
+            LOGGER.info("Exec " + command);
+            long start = System.currentTimeMillis();
+            ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+            ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+            try {
+                channel.setCommand(command);
+                channel.setErrStream(stderr);
+                InputStream out = channel.getInputStream();
+                OutputStream in = channel.getOutputStream();
+                channel.connect();
+
+                if (input != null) {
+                    in.write(input);
+                    in.flush();
+                }
+                in.close();
+
+                // Returns once the remote side sends EOF
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = out.read(buffer)) != -1) {
+                    stdout.write(buffer, 0, read);
+                }
+
+                // The exit status usually comes right after EOF; JSch can't
+                // notify us of it, so poll for the little slack needed
+                long deadline = System.currentTimeMillis() + EXIT_STATUS_GRACE;
+                while (channel.getExitStatus() == -1 && !channel.isClosed()
+                        && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+
+                int status = channel.getExitStatus();
+                LOGGER.info("Exec finished with " + status + " in "
+                        + (System.currentTimeMillis() - start) + "ms");
+                return new Result(status, stdout.toByteArray(), stderr.toByteArray());
+            } finally {
+                channel.disconnect();
+            }
+        }
+
+        void abort() {
+            channel.disconnect();
+        }
+    }
+}
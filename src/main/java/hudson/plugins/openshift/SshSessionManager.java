@@ -0,0 +1,143 @@
+package hudson.plugins.openshift;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+/**
+ * Keeps one authenticated SSH {@link Session} per builder gear so the
+ * bootstrap commands and the long-running slave.jar channel share it, and a
+ * relaunch after a channel drop doesn't need a new key exchange.
+ * <p/>
+ * The private key is parsed once and only re-read when the key file changes.
+ * The <code>hudson.plugins.openshift.SshSessionManager.port</code> system
+ * property overrides the SSH port, e.g. to point builders at a local SSH
+ * server in load tests.
+ */
+public class SshSessionManager {
+    private static final Logger LOGGER = Logger
+            .getLogger(SshSessionManager.class.getName());
+
+    private static final int SSH_PORT = Integer.getInteger(
+            SshSessionManager.class.getName() + ".port", 22);
+    private static final int KEEPALIVE_INTERVAL = 30000;
+    private static final int KEEPALIVE_COUNT_MAX = 3;
+
+    private static final SshSessionManager INSTANCE = new SshSessionManager();
+
+    private final ConcurrentMap<String, Holder> sessions = new ConcurrentHashMap<String, Holder>();
+    private JSch jsch;
+    private String keyPath;
+    private long keyModified;
+
+    public static SshSessionManager get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns a connected session to the given gear, reusing the existing one
+     * while it is alive.
+     *
+     * @param username the gear UUID
+     * @param hostName the gear host name
+     */
+    public Session getSession(String username, String hostName)
+            throws IOException, JSchException {
+        while (true) {
+            Holder holder = sessions.get(username);
+            if (holder == null) {
+                sessions.putIfAbsent(username, new Holder());
+                holder = sessions.get(username);
+            }
+
+            synchronized (holder) {
+                // Closed since it was looked up; a session opened into it
+                // would never be disconnected
+                if (holder.closed)
+                    continue;
+                return connect(holder, username, hostName);
+            }
+        }
+    }
+
+    /**
+     * Returns the holder's session, connecting it if needed. Called with the
+     * holder's lock held.
+     */
+    private Session connect(Holder holder, String username, String hostName)
+            throws IOException, JSchException {
+        if (holder.session != null && holder.session.isConnected()
+                && hostName.equals(holder.hostName)) {
+            return holder.session;
+        }
+        if (holder.session != null) {
+            LOGGER.info("SSH session to " + hostName + " is down, reconnecting...");
+            holder.session.disconnect();
+            holder.session = null;
+        }
+
+        // Connect to the resolved address so the JVM's negative DNS cache
+        // can't get in the way of a freshly created gear
+        String address = DnsReadinessProbe.getResolver().resolve(hostName).getHostAddress();
+        LOGGER.info("Connecting via SSH '" + username + "' '" + hostName + "' (" + address + ")");
+
+        Properties config = new Properties();
+        config.put("StrictHostKeyChecking", "no");
+        Session session = getJSch().getSession(username, address, SSH_PORT);
+        session.setConfig(config);
+        session.setServerAliveInterval(KEEPALIVE_INTERVAL);
+        session.setServerAliveCountMax(KEEPALIVE_COUNT_MAX);
+        session.connect((int) OpenShiftCloud.get().getTimeoutBudgets().getSsh());
+        LOGGER.info("Connected via SSH.");
+
+        holder.session = session;
+        holder.hostName = hostName;
+        return session;
+    }
+
+    /**
+     * Disconnects and forgets the session of the given gear, e.g. when its
+     * builder is terminated.
+     */
+    public void close(String username) {
+        if (username == null)
+            return;
+        Holder holder = sessions.remove(username);
+        if (holder != null) {
+            synchronized (holder) {
+                holder.closed = true;
+                if (holder.session != null) {
+                    holder.session.disconnect();
+                    holder.session = null;
+                }
+            }
+        }
+    }
+
+    private synchronized JSch getJSch() throws JSchException {
+        File key = OpenShiftCloud.get().getPrivateKey();
+        String path = key.getAbsolutePath();
+        if (jsch == null || !path.equals(keyPath) || key.lastModified() != keyModified) {
+            LOGGER.info("Loading SSH identity " + path);
+            JSch newJSch = new JSch();
+            newJSch.addIdentity(path);
+            jsch = newJSch;
+            keyPath = path;
+            keyModified = key.lastModified();
+        }
+        return jsch;
+    }
+
+    private static class Holder {
+        private Session session;
+        private String hostName;
+        private boolean closed;
+    }
+}
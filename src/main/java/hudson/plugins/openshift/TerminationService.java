@@ -0,0 +1,151 @@
+package hudson.plugins.openshift;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.Timer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.openshift.client.IApplication;
+
+/**
+ * Destroys builder applications in the background, a few at a time, and
+ * retries destroys that fail so their gears don't leak.
+ * <p/>
+ * It also collects orphaned builder applications, i.e. ones without a
+ * Jenkins node that aren't being provisioned, pooled or destroyed already.
+ * An application is only collected once two consecutive sweeps have found it
+ * orphaned.
+ */
+public class TerminationService {
+    private static final Logger LOGGER = Logger
+            .getLogger(TerminationService.class.getName());
+
+    private static final int POOL_SIZE = 4;
+    private static final int RETRY_LIMIT = 5;
+    private static final RetryPolicy RETRIES = new RetryPolicy(RETRY_LIMIT, 5000, 300000);
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private static ExecutorService createExecutor() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ExceptionCatchingThreadFactory(new NamingThreadFactory(
+                        new DaemonThreadFactory(), "OpenShift termination")));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private volatile OpenShiftCloud cloud;
+    private final Set<String> pending = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private Set<String> suspects = new HashSet<String>();
+
+    public TerminationService(OpenShiftCloud cloud) {
+        this.cloud = cloud;
+    }
+
+    /**
+     * Hands this over to the cloud that replaced its own when the
+     * configuration was saved.
+     */
+    void setCloud(OpenShiftCloud cloud) {
+        this.cloud = cloud;
+    }
+
+    /**
+     * Schedules the destruction of the named builder application, unless it
+     * is already scheduled.
+     */
+    public void terminate(String name) {
+        if (pending.add(name)) {
+            EXECUTOR.execute(new Destroy(name));
+        }
+    }
+
+    /**
+     * Returns whether the named builder application is being destroyed.
+     */
+    public boolean isPending(String name) {
+        return pending.contains(name);
+    }
+
+    /**
+     * Takes the builder applications found without a node by a sweep and
+     * destroys the ones the previous sweep found orphaned as well.
+     */
+    public synchronized void collectOrphans(Collection<String> orphans) {
+        Set<String> next = new HashSet<String>();
+        for (String name : orphans) {
+            if (isPending(name) || ProvisioningPipeline.isInFlight(name)
+                    || cloud.getWarmPool().contains(name))
+                continue;
+            if (suspects.contains(name)) {
+                LOGGER.info("Collecting orphaned builder application " + name);
+                ProvisioningMetrics.get().increment(ProvisioningMetrics.Counter.ORPHANS_COLLECTED);
+                terminate(name);
+            } else {
+                next.add(name);
+            }
+        }
+        suspects = next;
+    }
+
+    private class Destroy implements Runnable {
+        private final String name;
+        private int failures;
+
+        Destroy(String name) {
+            this.name = name;
+        }
+
+        public void run() {
+            try {
+                ApplicationRegistry registry = cloud.getApplicationRegistry();
+                // The index may predate the application
+                IApplication app = registry.findByName(name);
+                if (app != null) {
+                    app.destroy();
+                    cloud.getCapacityLedger().free();
+                    LOGGER.info("Destroyed builder application " + name);
+                } else {
+                    LOGGER.warning("Builder application " + name
+                            + " not found on the broker, nothing destroyed");
+                }
+                registry.unregister(name);
+                pending.remove(name);
+            } catch (Exception e) {
+                cloud.invalidateOnFailure(e);
+                RetryPolicy.Fault fault = RetryPolicy.classify(e);
+                if (!CircuitBreaker.isRejection(e)) {
+                    failures++;
+                }
+                if (!RETRIES.shouldRetry(fault, failures)) {
+                    LOGGER.log(Level.WARNING, "Unable to destroy builder application " + name
+                            + " after " + failures + " attempts", e);
+                    pending.remove(name);
+                    return;
+                }
+                long delay = RETRIES.getDelay(Math.max(failures, 1));
+                LOGGER.warning("Caught " + e + " destroying builder application " + name
+                        + ". Will retry in " + delay + "ms");
+                Timer.get().schedule(new Runnable() {
+                    public void run() {
+                        EXECUTOR.execute(Destroy.this);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package hudson.plugins.openshift;
+
+/**
+ * The time (in ms) each kind of provisioning operation may take, as
+ * configured on the {@link OpenShiftCloud}.
+ */
+public final class TimeoutBudgets {
+    private final long connect;
+    private final long read;
+    private final long createApp;
+    private final long dns;
+    private final long ssh;
+    private final long provisioning;
+
+    public TimeoutBudgets(long connect, long read, long createApp, long dns,
+                          long ssh, long provisioning) {
+        this.connect = connect;
+        this.read = read;
+        this.createApp = createApp;
+        this.dns = dns;
+        this.ssh = ssh;
+        this.provisioning = provisioning;
+    }
+
+    /**
+     * Returns the budget for establishing the broker connection.
+     */
+    public long getConnect() {
+        return connect;
+    }
+
+    /**
+     * Returns the budget for a single broker request.
+     */
+    public long getRead() {
+        return read;
+    }
+
+    /**
+     * Returns the budget for creating a builder application.
+     */
+    public long getCreateApp() {
+        return createApp;
+    }
+
+    /**
+     * Returns how long to wait for a new gear's host name to resolve.
+     */
+    public long getDns() {
+        return dns;
+    }
+
+    /**
+     * Returns the budget for the SSH handshake with a gear.
+     */
+    public long getSsh() {
+        return ssh;
+    }
+
+    /**
+     * Returns how long a builder may take from creation until it is online.
+     */
+    public long getProvisioning() {
+        return provisioning;
+    }
+
+    /**
+     * Returns the budget of the given broker client method.
+     */
+    public long forBrokerMethod(String methodName) {
+        return methodName.startsWith("createApplication") ? createApp : read;
+    }
+}
@@ -0,0 +1,248 @@
+package hudson.plugins.openshift;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Hudson;
+import hudson.model.PeriodicWork;
+import hudson.model.TaskListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Keeps a minimum of idle, already created and stopped builder gears for the
+ * configured hot labels, so a build can claim one instead of waiting for
+ * application creation and DNS propagation.
+ * <p/>
+ * Warm gears use the same names the provisioner would pick for the label and
+ * are only added as Jenkins nodes once claimed. In single-builder mode that
+ * is only <code>&lt;label&gt;bldr</code>, so at most one gear per label is
+ * kept warm whatever the configured size; scale-out mode allows up to the
+ * maximum number of builders per label.
+ * <p/>
+ * The names of the pool's gears are saved in the Jenkins home, so after a
+ * restart the pool takes its gears back instead of the reconciler adopting
+ * them as nodes.
+ */
+public class WarmPool {
+    private static final Logger LOGGER = Logger.getLogger(WarmPool.class
+            .getName());
+
+    private volatile OpenShiftCloud cloud;
+    private final ConcurrentMap<String, Queue<OpenShiftSlave>> idle = new ConcurrentHashMap<String, Queue<OpenShiftSlave>>();
+    // Names of idle gears and of gears being created for the pool
+    private final Set<String> names = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // Gears owned before a restart, not taken back yet
+    private final Set<String> restored = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    public WarmPool(OpenShiftCloud cloud) {
+        this.cloud = cloud;
+        load();
+    }
+
+    /**
+     * Hands the pool over to the cloud that replaced its own when the
+     * configuration was saved.
+     */
+    void setCloud(OpenShiftCloud cloud) {
+        this.cloud = cloud;
+    }
+
+    /**
+     * Takes an idle builder for the given label out of the pool, or returns
+     * null if there is none.
+     */
+    public OpenShiftSlave claim(String label) {
+        Queue<OpenShiftSlave> queue = idle.get(label);
+        OpenShiftSlave slave = queue == null ? null : queue.poll();
+        if (slave != null) {
+            names.remove(slave.getNodeName());
+            save();
+            LOGGER.info("Claimed warm builder " + slave.getNodeName() + " for " + label);
+            PeriodicWork.all().get(Refiller.class).run();
+        }
+        return slave;
+    }
+
+    /**
+     * Returns whether the given application is owned by the pool, either idle
+     * or still being created.
+     */
+    public boolean contains(String appName) {
+        return names.contains(appName);
+    }
+
+    public int size(String label) {
+        Queue<OpenShiftSlave> queue = idle.get(label);
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * Tops up the pool of every configured label.
+     */
+    public void refill() {
+        OpenShiftCloud cloud = this.cloud;
+        Set<String> wanted = new HashSet<String>();
+        for (String label : cloud.getWarmPoolLabelList()) {
+            try {
+                wanted.addAll(cloud.getBuilderNames(
+                        BuilderSpec.forLabel(label, cloud.getDefaultBuilderSize())));
+                refill(label);
+            } catch (Exception e) {
+                cloud.invalidateOnFailure(e);
+                LOGGER.log(Level.WARNING, "Unable to refill warm pool for " + label, e);
+            }
+        }
+        // Gears of labels no longer kept warm are left to the orphan sweep
+        for (String name : restored) {
+            if (!wanted.contains(name) && restored.remove(name)) {
+                release(name);
+            }
+        }
+    }
+
+    /**
+     * Gives up a gear owned before a restart that the pool no longer needs.
+     */
+    private void release(String name) {
+        LOGGER.info("Releasing warm builder " + name + " from the pool");
+        names.remove(name);
+        save();
+    }
+
+    private void refill(String label) throws Exception {
+        OpenShiftCloud cloud = this.cloud;
+        BuilderSpec spec = BuilderSpec.forLabel(label, cloud.getDefaultBuilderSize());
+        ApplicationRegistry registry = cloud.getApplicationRegistry();
+        CapacityLedger ledger = cloud.getCapacityLedger();
+
+        for (String name : cloud.getBuilderNames(spec)) {
+            boolean owned = restored.remove(name);
+            if (size(label) >= cloud.getWarmPoolSize()
+                    || Hudson.getInstance().getNode(name) != null) {
+                if (owned) {
+                    release(name);
+                }
+                continue;
+            }
+            if (!owned && (ProvisioningPipeline.isInFlight(name) || !names.add(name)))
+                continue;
+
+            boolean pooled = false;
+            try {
+                OpenShiftSlave slave = spec.newSlave(name, 1, cloud.getSlaveIdleTimeToLive());
+                if (registry.getByName(name) != null) {
+                    if (!owned) {
+                        // Not the pool's; a builder being provisioned or an
+                        // orphan, left to the pipeline and the reconciler
+                        continue;
+                    }
+                    LOGGER.info("Taking back warm builder " + name + " for " + label);
+                } else {
+                    if (!ledger.reserve(slave.getGears())) {
+                        LOGGER.info("Not refilling warm pool for " + label + " due to lack of capacity");
+                        return;
+                    }
+                    LOGGER.info("Creating warm builder " + name + " for " + label);
+                    try {
+                        slave.createApp();
+                    } catch (Exception e) {
+                        ledger.release(slave.getGears());
+                        throw e;
+                    }
+                    ledger.commit(slave.getGears());
+                }
+                // Nothing waits for a warm gear, so probe until it resolves;
+                // claims skip DNS and rely on it
+                slave.connect(false, -1, new DnsReadinessProbe());
+                add(label, slave);
+                pooled = true;
+            } finally {
+                if (!pooled) {
+                    names.remove(name);
+                }
+                save();
+            }
+        }
+    }
+
+    private XmlFile getFile() {
+        Hudson hudson = Hudson.getInstance();
+        return hudson == null ? null
+                : new XmlFile(Hudson.XSTREAM, new File(hudson.getRootDir(), "openshift-warm-pool.xml"));
+    }
+
+    private void load() {
+        XmlFile file = getFile();
+        if (file == null || !file.exists())
+            return;
+        try {
+            @SuppressWarnings("unchecked")
+            List<String> saved = (List<String>) file.read();
+            names.addAll(saved);
+            restored.addAll(saved);
+            LOGGER.info("Restored warm builders " + saved);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to load the warm pool from " + file, e);
+        }
+    }
+
+    private synchronized void save() {
+        XmlFile file = getFile();
+        if (file == null)
+            return;
+        try {
+            file.write(new ArrayList<String>(names));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to save the warm pool to " + file, e);
+        }
+    }
+
+    private void add(String label, OpenShiftSlave slave) {
+        Queue<OpenShiftSlave> queue = idle.get(label);
+        if (queue == null) {
+            idle.putIfAbsent(label, new ConcurrentLinkedQueue<OpenShiftSlave>());
+            queue = idle.get(label);
+        }
+        queue.add(slave);
+    }
+
+    /**
+     * Replaces claimed warm gears in the background.
+     */
+    @Extension
+    public static class Refiller extends AsyncPeriodicWork {
+        public Refiller() {
+            super("OpenShift warm pool refiller");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return MIN;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws IOException,
+                InterruptedException {
+            OpenShiftCloud cloud = OpenShiftCloud.get();
+            if (cloud == null || cloud.getWarmPoolSize() <= 0)
+                return;
+            cloud.getWarmPool().refill();
+        }
+    }
+}
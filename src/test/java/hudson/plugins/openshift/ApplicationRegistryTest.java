@@ -0,0 +1,117 @@
+package hudson.plugins.openshift;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.openshift.client.IApplication;
+
+public class ApplicationRegistryTest {
+    private static final String OTHER = "apps";
+
+    private FakeBroker broker;
+    private OpenShiftCloud cloud;
+    private ApplicationRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new FakeBroker(FakeBroker.NAMESPACE, OTHER);
+        broker.addApplication(FakeBroker.NAMESPACE, "phpbldr", FakeBroker.CARTRIDGE);
+        broker.addApplication(OTHER, "shop", FakeBroker.CARTRIDGE);
+        cloud = broker.install();
+        registry = new ApplicationRegistry(cloud, FakeBroker.NAMESPACE, 60000);
+    }
+
+    @After
+    public void tearDown() {
+        FakeBroker.uninstall();
+    }
+
+    @Test
+    public void indexesAllDomainsByUuidAndBuildersByName() throws Exception {
+        assertNotNull(registry.getByName("phpbldr"));
+        assertNull(registry.getByName("shop"));
+        assertEquals("shop", registry.getByUuid(broker.getUuid(OTHER, "shop")).getName());
+        assertEquals(1, registry.getApplications().size());
+    }
+
+    @Test
+    public void listsOnlyOnceStale() throws Exception {
+        registry.getByName("phpbldr");
+        registry.getByName("rubybldr");
+        registry.getApplications();
+        assertEquals(1, broker.getCalls("getDomains"));
+
+        registry.invalidate();
+        registry.getByName("phpbldr");
+        assertEquals(2, broker.getCalls("getDomains"));
+    }
+
+    @Test
+    public void keepsTrackOfChangesWithoutListing() throws Exception {
+        registry.getApplications();
+        IApplication app = createElsewhere("rubybldr");
+
+        registry.register(app);
+        assertEquals(app.getUUID(), registry.getByName("rubybldr").getUUID());
+        assertNotNull(registry.getByUuid(app.getUUID()));
+
+        registry.unregister("phpbldr");
+        assertNull(registry.getByName("phpbldr"));
+        assertEquals(1, broker.getCalls("getDomains"));
+    }
+
+    @Test
+    public void findsApplicationsCreatedAfterTheListing() throws Exception {
+        registry.getApplications();
+        broker.addApplication(FakeBroker.NAMESPACE, "rubybldr", FakeBroker.CARTRIDGE);
+
+        assertNull(registry.getByName("rubybldr"));
+        assertEquals(broker.getUuid(FakeBroker.NAMESPACE, "rubybldr"),
+                registry.findByName("rubybldr").getUUID());
+        assertNotNull(registry.getByName("rubybldr"));
+        assertNull(registry.findByName("pythonbldr"));
+        assertEquals(1, broker.getCalls("getDomains"));
+    }
+
+    @Test
+    public void changesDuringAListingSurviveIt() throws Exception {
+        // Gone from the broker by the time it lists
+        IApplication app = createElsewhere("rubybldr");
+
+        broker.setLatency(300);
+        Thread refresh = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    registry.getApplications();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        refresh.start();
+        Thread.sleep(150);
+        registry.register(app);
+        // Still listed, as if destroyed after the listing
+        registry.unregister("phpbldr");
+        refresh.join();
+
+        broker.setLatency(0);
+        assertNotNull(registry.getByName("rubybldr"));
+        assertNull(registry.getByName("phpbldr"));
+        assertEquals(1, broker.getCalls("getDomains"));
+    }
+
+    private IApplication createElsewhere(String name) throws Exception {
+        broker.addApplication(FakeBroker.NAMESPACE, name, FakeBroker.CARTRIDGE);
+        IApplication app = cloud.getOpenShiftConnection().getUser()
+                .getDomain(FakeBroker.NAMESPACE).getApplicationByName(name);
+        app.destroy();
+        return app;
+    }
+}
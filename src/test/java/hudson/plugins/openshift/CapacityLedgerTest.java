@@ -0,0 +1,130 @@
+package hudson.plugins.openshift;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.openshift.client.OpenShiftException;
+
+public class CapacityLedgerTest {
+    private FakeBroker broker;
+    private CapacityLedger ledger;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new FakeBroker();
+        ledger = new CapacityLedger(broker.install());
+    }
+
+    @After
+    public void tearDown() {
+        FakeBroker.uninstall();
+    }
+
+    @Test
+    public void reservesUpToTheQuota() throws Exception {
+        broker.setMaxGears(3);
+        broker.addApplication(FakeBroker.NAMESPACE, "existing", FakeBroker.CARTRIDGE);
+
+        assertTrue(ledger.reserve(1));
+        assertTrue(ledger.reserve(1));
+        assertFalse(ledger.reserve(1));
+        assertEquals(0, ledger.getAvailable());
+
+        ledger.release(1);
+        assertEquals(1, ledger.getAvailable());
+        assertTrue(ledger.reserve(1));
+    }
+
+    @Test
+    public void committedGearsStayTakenUntilFreed() throws Exception {
+        broker.setMaxGears(2);
+        assertTrue(ledger.reserve(1));
+        ledger.commit(1);
+        assertEquals(1, ledger.getAvailable());
+
+        assertTrue(ledger.reserve(1));
+        assertFalse(ledger.reserve(1));
+
+        ledger.free();
+        assertEquals(1, ledger.getAvailable());
+    }
+
+    @Test
+    public void destroyIsCountedOnce() throws Exception {
+        broker.setMaxGears(2);
+        broker.addApplication(FakeBroker.NAMESPACE, "first", FakeBroker.CARTRIDGE);
+        broker.addApplication(FakeBroker.NAMESPACE, "second", FakeBroker.CARTRIDGE);
+        assertEquals(0, ledger.getAvailable());
+
+        // The reconcile sees the destroy before the builder frees its gear
+        broker.connect(null, null, null, null, null).getUser()
+                .getDomain(FakeBroker.NAMESPACE).getApplicationByName("first").destroy();
+        ledger.reconcile();
+        ledger.free();
+
+        assertEquals(1, ledger.getAvailable());
+    }
+
+    @Test
+    public void commitsDoNotWaitForTheBroker() throws Exception {
+        broker.setMaxGears(2);
+        assertTrue(ledger.reserve(1));
+        broker.setLatency(500);
+        final Exception[] failure = new Exception[1];
+        Thread reconcile = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    ledger.reconcile();
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        reconcile.start();
+        Thread.sleep(100);
+
+        long start = System.currentTimeMillis();
+        ledger.commit(1);
+        assertTrue("Commit waited for the reconcile", System.currentTimeMillis() - start < 300);
+        reconcile.join();
+        assertEquals(null, failure[0]);
+
+        // The broker answered before the creation, the commit still counts
+        broker.setLatency(0);
+        assertEquals(1, ledger.getAvailable());
+    }
+
+    @Test
+    public void reconcileKeepsReservations() throws Exception {
+        broker.setMaxGears(5);
+        assertTrue(ledger.reserve(2));
+
+        broker.addApplication(FakeBroker.NAMESPACE, "first", FakeBroker.CARTRIDGE);
+        broker.addApplication(FakeBroker.NAMESPACE, "second", FakeBroker.CARTRIDGE);
+        ledger.reconcile();
+
+        assertEquals(1, ledger.getAvailable());
+    }
+
+    @Test
+    public void exhaustionIgnoresReservations() throws Exception {
+        broker.setMaxGears(1);
+        assertTrue(ledger.reserve(1));
+        assertFalse(ledger.isExhausted());
+
+        broker.addApplication(FakeBroker.NAMESPACE, "existing", FakeBroker.CARTRIDGE);
+        assertTrue(ledger.isExhausted());
+    }
+
+    @Test(expected = OpenShiftException.class)
+    public void brokerFailurePropagates() throws Exception {
+        broker.failNext("getUser", new OpenShiftException("Internal error"));
+        ledger.reserve(1);
+    }
+}
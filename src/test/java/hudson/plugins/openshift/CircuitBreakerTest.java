@@ -0,0 +1,128 @@
+package hudson.plugins.openshift;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.openshift.client.OpenShiftException;
+
+public class CircuitBreakerTest {
+    private static final OpenShiftException BROKER_FAULT = new OpenShiftException("Internal error");
+
+    @Test
+    public void opensAfterConsecutiveFailures() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60000);
+        for (int i = 0; i < 2; i++) {
+            breaker.acquire();
+            breaker.recordFailure(BROKER_FAULT);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.acquire();
+        breaker.recordFailure(BROKER_FAULT);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.isOpen());
+        assertRejected(breaker);
+    }
+
+    @Test
+    public void successResetsTheFailureCount() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(2, 60000);
+        breaker.acquire();
+        breaker.recordFailure(BROKER_FAULT);
+        breaker.acquire();
+        breaker.recordSuccess();
+        breaker.acquire();
+        breaker.recordFailure(BROKER_FAULT);
+
+        assertEquals(1, breaker.getFailures());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void halfOpenLetsOneTrialThrough() throws Exception {
+        CircuitBreaker breaker = open(new CircuitBreaker(1, 200));
+        Thread.sleep(300);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.isOpen());
+
+        breaker.acquire();
+        assertTrue(breaker.isOpen());
+        assertRejected(breaker);
+
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.acquire();
+    }
+
+    @Test
+    public void failedTrialReopens() throws Exception {
+        CircuitBreaker breaker = open(new CircuitBreaker(5, 200));
+        Thread.sleep(300);
+        breaker.acquire();
+        breaker.recordFailure(BROKER_FAULT);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertRejected(breaker);
+    }
+
+    @Test
+    public void releasedTrialLetsTheNextOneThrough() throws Exception {
+        CircuitBreaker breaker = open(new CircuitBreaker(1, 200));
+        Thread.sleep(300);
+        breaker.acquire();
+        breaker.release();
+
+        assertFalse(breaker.isOpen());
+        breaker.acquire();
+    }
+
+    @Test
+    public void outcomeIsClassified() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 60000);
+
+        // The broker answered, so the call counts as a success
+        breaker.acquire();
+        breaker.recordOutcome(new BuilderConfigurationException("Cartridge for php-9 not found"));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        // Rejected without asking the broker, so it counts as nothing
+        breaker.acquire();
+        breaker.recordOutcome(new BrokerProxy.BrokerSaturatedException("All threads busy"));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getFailures());
+
+        breaker.acquire();
+        breaker.recordOutcome(new IOException("Connection reset"));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void rejectionIsFoundInTheCauseChain() {
+        Exception rejected = new IOException(new CircuitBreaker.BrokerUnavailableException("Open"));
+        assertTrue(CircuitBreaker.isRejection(rejected));
+        assertFalse(CircuitBreaker.isRejection(new IOException(BROKER_FAULT)));
+    }
+
+    private static CircuitBreaker open(CircuitBreaker breaker) throws Exception {
+        for (int i = 0; i < breaker.getFailureThreshold(); i++) {
+            breaker.acquire();
+            breaker.recordFailure(BROKER_FAULT);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+
+    private static void assertRejected(CircuitBreaker breaker) {
+        try {
+            breaker.acquire();
+            fail("Call was let through a " + breaker.getState() + " breaker");
+        } catch (CircuitBreaker.BrokerUnavailableException expected) {
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package hudson.plugins.openshift;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DirectHostResolverTest {
+    private static final int TYPE_A = 1;
+    private static final int TYPE_CNAME = 5;
+    private static final byte[] ADDRESS = {10, 1, 2, 3};
+
+    private StubNameServer server;
+    private DirectHostResolver resolver;
+
+    @Before
+    public void startServer() throws Exception {
+        server = new StubNameServer();
+        server.start();
+        resolver = new DirectHostResolver(Collections.singletonList(
+                InetAddress.getByName("127.0.0.1")), server.getPort());
+    }
+
+    @After
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void resolvesARecord() throws Exception {
+        server.answer(record(TYPE_A, 60, ADDRESS));
+
+        InetAddress address = resolver.resolve("php-bldr-builders.example.com");
+        assertArrayEquals(ADDRESS, address.getAddress());
+        assertEquals("php-bldr-builders.example.com", address.getHostName());
+    }
+
+    @Test
+    public void skipsCnameChain() throws Exception {
+        server.answer(record(TYPE_CNAME, 300, name("node1.example.com")),
+                record(TYPE_A, 60, ADDRESS));
+
+        assertArrayEquals(ADDRESS, resolver.resolve("php-bldr-builders.example.com").getAddress());
+    }
+
+    @Test(expected = UnknownHostException.class)
+    public void nxdomainIsUnknown() throws Exception {
+        server.flags = 0x8183;
+        resolver.resolve("php-bldr-builders.example.com");
+    }
+
+    @Test(expected = UnknownHostException.class)
+    public void answerWithoutAddressIsUnknown() throws Exception {
+        server.answer(record(TYPE_CNAME, 300, name("node1.example.com")));
+        resolver.resolve("php-bldr-builders.example.com");
+    }
+
+    @Test
+    public void cachesForTheRecordTtl() throws Exception {
+        server.answer(record(TYPE_A, 60, ADDRESS));
+        resolver.resolve("php-bldr-builders.example.com");
+        resolver.resolve("php-bldr-builders.example.com");
+        assertEquals(1, server.queries.get());
+
+        server.answer(record(TYPE_A, 0, ADDRESS));
+        resolver.resolve("ruby-bldr-builders.example.com");
+        resolver.resolve("ruby-bldr-builders.example.com");
+        assertEquals(3, server.queries.get());
+    }
+
+    @Test
+    public void truncatedAnswerFallsBackToTheJvmResolver() throws Exception {
+        server.flags = 0x8380;
+        server.answer(record(TYPE_A, 60, ADDRESS));
+
+        InetAddress address = resolver.resolve("localhost");
+        assertTrue(address + " is not the JVM's answer", address.isLoopbackAddress());
+        assertEquals(1, server.queries.get());
+    }
+
+    private static byte[] record(int type, int ttl, byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeShort(out, 0xC00C); // pointer to the question's name
+        writeShort(out, type);
+        writeShort(out, 1);
+        writeShort(out, ttl >>> 16);
+        writeShort(out, ttl & 0xFFFF);
+        writeShort(out, data.length);
+        out.write(data);
+        return out.toByteArray();
+    }
+
+    private static byte[] name(String hostname) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String label : hostname.split("\\.")) {
+            out.write(label.length());
+            out.write(label.getBytes("US-ASCII"));
+        }
+        out.write(0);
+        return out.toByteArray();
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write((value >> 8) & 0xFF);
+        out.write(value & 0xFF);
+    }
+
+    /**
+     * Answers every query with the configured flags and answer records.
+     */
+    private static class StubNameServer extends Thread {
+        private final DatagramSocket socket;
+        private final AtomicInteger queries = new AtomicInteger();
+        private volatile int flags = 0x8180;
+        private volatile List<byte[]> answers = new ArrayList<byte[]>();
+
+        StubNameServer() throws SocketException, UnknownHostException {
+            super("Stub name server");
+            socket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+            setDaemon(true);
+        }
+
+        int getPort() {
+            return socket.getLocalPort();
+        }
+
+        void answer(byte[]... records) {
+            List<byte[]> list = new ArrayList<byte[]>();
+            Collections.addAll(list, records);
+            answers = list;
+        }
+
+        void close() {
+            socket.close();
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[512];
+            while (!socket.isClosed()) {
+                try {
+                    DatagramPacket request = new DatagramPacket(buffer, buffer.length);
+                    socket.receive(request);
+                    queries.incrementAndGet();
+                    byte[] response = respond(buffer, request.getLength());
+                    socket.send(new DatagramPacket(response, response.length,
+                            request.getSocketAddress()));
+                } catch (IOException e) {
+                    // Closed
+                }
+            }
+        }
+
+        private byte[] respond(byte[] request, int length) throws IOException {
+            List<byte[]> records = answers;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(request, 0, 2); // id
+            writeShort(out, flags);
+            writeShort(out, 1);
+            writeShort(out, (flags & 0x0F) == 0 ? records.size() : 0);
+            writeShort(out, 0);
+            writeShort(out, 0);
+            out.write(request, 12, length - 12); // question
+            if ((flags & 0x0F) == 0) {
+                for (byte[] record : records) {
+                    out.write(record);
+                }
+            }
+            return out.toByteArray();
+        }
+    }
+}
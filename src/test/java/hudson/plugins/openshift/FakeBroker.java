@@ -0,0 +1,600 @@
+package hudson.plugins.openshift;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.openshift.client.IApplication;
+import com.openshift.client.IDomain;
+import com.openshift.client.IGear;
+import com.openshift.client.IGearGroup;
+import com.openshift.client.IGearProfile;
+import com.openshift.client.IOpenShiftConnection;
+import com.openshift.client.IUser;
+import com.openshift.client.OpenShiftException;
+import com.openshift.client.cartridge.ICartridge;
+import com.openshift.client.cartridge.IStandaloneCartridge;
+
+/**
+ * In-process stand-in for the OpenShift broker. It keeps the account's
+ * domains, applications, cartridges and gear profiles in memory and hands
+ * out client objects backed by them, so the plugin can be driven without a
+ * live broker.
+ * <p/>
+ * Calls that are REST requests in the real client can be slowed down with a
+ * latency and made to fail with injected exceptions. Other methods of the
+ * client interfaces that the plugin doesn't use throw
+ * {@link UnsupportedOperationException}.
+ */
+public class FakeBroker implements BrokerConnector {
+    /**
+     * The builder namespace the tests run with, see the surefire setup.
+     */
+    public static final String NAMESPACE = "builders";
+
+    public static final String CARTRIDGE = "jbossas-7";
+
+    // Methods that are requests to the broker in the real client
+    private static final Set<String> REQUESTS = new HashSet<String>(Arrays.asList(
+            "connect", "getUser", "getDomains", "getDomain", "getDefaultDomain",
+            "getStandaloneCartridges", "getEmbeddableCartridges", "refresh",
+            "getApplications", "getApplicationByName", "createApplication",
+            "getAvailableGearProfiles", "start", "stop", "restart", "destroy"));
+
+    private static final Object UNSUPPORTED = new Object();
+
+    private final Map<String, Map<String, App>> domains = new LinkedHashMap<String, Map<String, App>>();
+    private final List<String> cartridges = new ArrayList<String>();
+    private final List<String> gearProfiles = new ArrayList<String>(Arrays.asList("small", "medium"));
+    private final Map<String, LinkedList<RuntimeException>> failures = new ConcurrentHashMap<String, LinkedList<RuntimeException>>();
+    private final ConcurrentMap<String, AtomicInteger> calls = new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger destroyed = new AtomicInteger();
+    private volatile long latency;
+    private int maxGears = 100;
+    private int nextId;
+
+    /**
+     * Creates a broker whose account owns the given domains, or the builder
+     * namespace if none are given, and offers {@link #CARTRIDGE}.
+     */
+    public FakeBroker(String... domainIds) {
+        if (domainIds.length == 0) {
+            domainIds = new String[]{NAMESPACE};
+        }
+        for (String id : domainIds) {
+            domains.put(id, new LinkedHashMap<String, App>());
+        }
+        cartridges.add(CARTRIDGE);
+    }
+
+    public IOpenShiftConnection connect(String username, String password, String authKey,
+                                        String authIV, String url) throws OpenShiftException {
+        request("connect");
+        return proxy(IOpenShiftConnection.class, new ConnectionResource());
+    }
+
+    /**
+     * Makes this the broker all clouds connect to and returns a new cloud
+     * configured with defaults.
+     */
+    public OpenShiftCloud install() throws IOException {
+        OpenShiftCloud.setBrokerConnector(this);
+        return new OpenShiftCloud("builder", "secret", "broker.fake.test", "443",
+                null, 0, false, 15, 15, "small");
+    }
+
+    /**
+     * Puts the client's connector back in place.
+     */
+    public static void uninstall() {
+        OpenShiftCloud.setBrokerConnector(new BrokerConnector.ClientBrokerConnector());
+    }
+
+    /**
+     * Delays every request by the given time (in ms).
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Makes the next call of the named request fail with the given exception.
+     * Failures queued for the same request are thrown in order.
+     */
+    public void failNext(String request, RuntimeException failure) {
+        synchronized (failures) {
+            LinkedList<RuntimeException> queued = failures.get(request);
+            if (queued == null) {
+                queued = new LinkedList<RuntimeException>();
+                failures.put(request, queued);
+            }
+            queued.add(failure);
+        }
+    }
+
+    /**
+     * Returns how often the named request was made.
+     */
+    public int getCalls(String request) {
+        AtomicInteger count = calls.get(request);
+        return count == null ? 0 : count.get();
+    }
+
+    public synchronized void setMaxGears(int maxGears) {
+        this.maxGears = maxGears;
+    }
+
+    public synchronized void addCartridge(String name) {
+        cartridges.add(name);
+    }
+
+    /**
+     * Adds an application to the given domain, as if created by someone else.
+     */
+    public synchronized void addApplication(String domainId, String name, String cartridge) {
+        Map<String, App> apps = domains.get(domainId);
+        apps.put(name, new App(domainId, name, cartridge, gearProfiles.get(0), newId()));
+    }
+
+    /**
+     * Returns the names of the applications of the given domain.
+     */
+    public synchronized List<String> getApplicationNames(String domainId) {
+        return new ArrayList<String>(domains.get(domainId).keySet());
+    }
+
+    /**
+     * Returns the UUID of the named application, or null if it doesn't exist.
+     */
+    public synchronized String getUuid(String domainId, String name) {
+        App app = domains.get(domainId).get(name);
+        return app == null ? null : app.uuid;
+    }
+
+    /**
+     * Waits up to the given time (in ms) for the given domain to be down to
+     * the given number of applications.
+     *
+     * @return whether it got there in time
+     */
+    public boolean awaitApplications(String domainId, int count, long timeout)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (getApplicationNames(domainId).size() > count) {
+            if (System.currentTimeMillis() >= deadline)
+                return false;
+            Thread.sleep(100);
+        }
+        return true;
+    }
+
+    public synchronized int getConsumedGears() {
+        int gears = 0;
+        for (Map<String, App> apps : domains.values()) {
+            gears += apps.size();
+        }
+        return gears;
+    }
+
+    /**
+     * Returns how many applications were created through the client.
+     */
+    public int getCreated() {
+        return created.get();
+    }
+
+    /**
+     * Returns how many applications were destroyed through the client.
+     */
+    public int getDestroyed() {
+        return destroyed.get();
+    }
+
+    private void request(String name) {
+        AtomicInteger count = calls.get(name);
+        if (count == null) {
+            calls.putIfAbsent(name, new AtomicInteger());
+            count = calls.get(name);
+        }
+        count.incrementAndGet();
+
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new OpenShiftException("Request " + name + " interrupted");
+            }
+        }
+
+        RuntimeException failure = null;
+        synchronized (failures) {
+            LinkedList<RuntimeException> queued = failures.get(name);
+            if (queued != null) {
+                failure = queued.poll();
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    private String newId() {
+        return String.format("%032x", ++nextId);
+    }
+
+    private synchronized List<IDomain> domainList() {
+        List<IDomain> list = new ArrayList<IDomain>();
+        for (String id : domains.keySet()) {
+            list.add(proxy(IDomain.class, new DomainResource(id)));
+        }
+        return list;
+    }
+
+    private synchronized IDomain domain(String id) {
+        if (!domains.containsKey(id))
+            return null;
+        return proxy(IDomain.class, new DomainResource(id));
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler resource) {
+        return type.cast(Proxy.newProxyInstance(FakeBroker.class.getClassLoader(),
+                new Class<?>[]{type}, resource));
+    }
+
+    private IStandaloneCartridge cartridge(String name) {
+        return proxy(IStandaloneCartridge.class, new CartridgeResource(name));
+    }
+
+    private static String getName(Object value) {
+        if (value != null && Proxy.isProxyClass(value.getClass())) {
+            InvocationHandler handler = Proxy.getInvocationHandler(value);
+            if (handler instanceof CartridgeResource)
+                return ((CartridgeResource) handler).name;
+            if (handler instanceof ProfileResource)
+                return ((ProfileResource) handler).name;
+        }
+        if (value instanceof ICartridge)
+            return ((ICartridge) value).getName();
+        if (value instanceof IGearProfile)
+            return ((IGearProfile) value).getName();
+        return null;
+    }
+
+    private static Object convert(Object value, Class<?> type) {
+        if (type == void.class)
+            return null;
+        if (type == int.class)
+            return value == null ? 0 : ((Number) value).intValue();
+        if (type == long.class)
+            return value == null ? 0L : ((Number) value).longValue();
+        if (type == boolean.class)
+            return value == null ? Boolean.FALSE : value;
+        return value;
+    }
+
+    /**
+     * A client object of the fake broker.
+     */
+    private abstract class Resource implements InvocationHandler {
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (method.getDeclaringClass() == Object.class) {
+                if (name.equals("equals"))
+                    return proxy == args[0];
+                if (name.equals("hashCode"))
+                    return System.identityHashCode(proxy);
+                return toString();
+            }
+            if (REQUESTS.contains(name)) {
+                request(name);
+            }
+            Object result;
+            synchronized (FakeBroker.this) {
+                result = call(name, args == null ? new Object[0] : args);
+            }
+            if (result == UNSUPPORTED)
+                throw new UnsupportedOperationException("Fake broker doesn't support "
+                        + method.getDeclaringClass().getSimpleName() + "." + name);
+            return convert(result, method.getReturnType());
+        }
+
+        /**
+         * Answers the named method under the broker's lock, or returns
+         * {@link #UNSUPPORTED}.
+         */
+        protected abstract Object call(String method, Object[] args);
+    }
+
+    private class ConnectionResource extends Resource {
+        @Override
+        protected Object call(String method, Object[] args) {
+            if (method.equals("getUser"))
+                return proxy(IUser.class, new UserResource());
+            if (method.equals("getDomains"))
+                return domainList();
+            if (method.equals("getStandaloneCartridges")) {
+                List<IStandaloneCartridge> list = new ArrayList<IStandaloneCartridge>();
+                for (String cartridge : cartridges) {
+                    list.add(cartridge(cartridge));
+                }
+                return list;
+            }
+            if (method.equals("getEmbeddableCartridges"))
+                return Collections.emptyList();
+            return UNSUPPORTED;
+        }
+
+        @Override
+        public String toString() {
+            return "FakeBroker connection";
+        }
+    }
+
+    private class UserResource extends Resource {
+        @Override
+        protected Object call(String method, Object[] args) {
+            if (method.equals("refresh"))
+                return null;
+            if (method.equals("getMaxGears"))
+                return maxGears;
+            if (method.equals("getConsumedGears"))
+                return getConsumedGears();
+            if (method.equals("getDomains"))
+                return domainList();
+            if (method.equals("getDomain"))
+                return domain((String) args[0]);
+            if (method.equals("hasDomain"))
+                return args.length == 0 ? !domains.isEmpty() : domains.containsKey(args[0]);
+            if (method.equals("getDefaultDomain"))
+                return domains.isEmpty() ? null : domain(domains.keySet().iterator().next());
+            if (method.equals("getRhlogin"))
+                return "fake";
+            return UNSUPPORTED;
+        }
+    }
+
+    private class DomainResource extends Resource {
+        private final String id;
+
+        DomainResource(String id) {
+            this.id = id;
+        }
+
+        @Override
+        protected Object call(String method, Object[] args) {
+            Map<String, App> apps = domains.get(id);
+            if (method.equals("getId"))
+                return id;
+            if (method.equals("refresh"))
+                return null;
+            if (method.equals("getApplications")) {
+                if (apps == null)
+                    throw new OpenShiftException("Domain " + id + " not found");
+                List<IApplication> list = new ArrayList<IApplication>();
+                for (App app : apps.values()) {
+                    list.add(app.toClient());
+                }
+                return list;
+            }
+            if (method.equals("getApplicationByName")) {
+                App app = apps == null ? null : apps.get(args[0]);
+                return app == null ? null : app.toClient();
+            }
+            if (method.equals("hasApplicationByName"))
+                return apps != null && apps.containsKey(args[0]);
+            if (method.equals("getAvailableGearProfiles")) {
+                List<IGearProfile> list = new ArrayList<IGearProfile>();
+                for (String profile : gearProfiles) {
+                    list.add(proxy(IGearProfile.class, new ProfileResource(profile)));
+                }
+                return list;
+            }
+            if (method.equals("createApplication"))
+                return createApplication(apps, args);
+            return UNSUPPORTED;
+        }
+
+        private IApplication createApplication(Map<String, App> apps, Object[] args) {
+            String name = (String) args[0];
+            if (apps == null)
+                throw new OpenShiftException("Domain " + id + " not found");
+            if (apps.containsKey(name))
+                throw new OpenShiftException("Application " + name + " already exists");
+            if (getConsumedGears() >= maxGears)
+                throw new OpenShiftException("No gears left to create " + name);
+
+            String cartridge = null;
+            String profile = gearProfiles.get(0);
+            for (Object arg : args) {
+                if (arg instanceof ICartridge) {
+                    cartridge = getName(arg);
+                } else if (arg instanceof IGearProfile) {
+                    profile = getName(arg);
+                }
+            }
+            if (cartridge == null || !cartridges.contains(cartridge))
+                throw new OpenShiftException("Cartridge " + cartridge + " not found");
+
+            App app = new App(id, name, cartridge, profile, newId());
+            apps.put(name, app);
+            created.incrementAndGet();
+            return app.toClient();
+        }
+
+        @Override
+        public String toString() {
+            return "FakeBroker domain " + id;
+        }
+    }
+
+    /**
+     * An application with a single gear.
+     */
+    private class App {
+        private final String domainId;
+        private final String name;
+        private final String cartridge;
+        private final String gearProfile;
+        private final String uuid;
+        private boolean stopped;
+
+        App(String domainId, String name, String cartridge, String gearProfile, String uuid) {
+            this.domainId = domainId;
+            this.name = name;
+            this.cartridge = cartridge;
+            this.gearProfile = gearProfile;
+            this.uuid = uuid;
+        }
+
+        String getHostName() {
+            return name + "-" + domainId + ".fake.test";
+        }
+
+        IApplication toClient() {
+            return proxy(IApplication.class, new ApplicationResource(this));
+        }
+    }
+
+    private class ApplicationResource extends Resource {
+        private final App app;
+
+        ApplicationResource(App app) {
+            this.app = app;
+        }
+
+        @Override
+        protected Object call(String method, Object[] args) {
+            if (method.equals("getName"))
+                return app.name;
+            if (method.equals("getUUID"))
+                return app.uuid;
+            if (method.equals("getCartridge"))
+                return cartridge(app.cartridge);
+            if (method.equals("getGearProfile"))
+                return proxy(IGearProfile.class, new ProfileResource(app.gearProfile));
+            if (method.equals("getDomain"))
+                return domain(app.domainId);
+            if (method.equals("getApplicationUrl"))
+                return "http://" + app.getHostName() + "/";
+            if (method.equals("getGearGroups")) {
+                List<IGearGroup> list = new ArrayList<IGearGroup>();
+                list.add(proxy(IGearGroup.class, new GearGroupResource(app)));
+                return list;
+            }
+            if (method.equals("refresh"))
+                return null;
+            if (method.equals("start") || method.equals("restart")) {
+                app.stopped = false;
+                return null;
+            }
+            if (method.equals("stop")) {
+                app.stopped = true;
+                return null;
+            }
+            if (method.equals("destroy")) {
+                Map<String, App> apps = domains.get(app.domainId);
+                if (apps.get(app.name) != app)
+                    throw new OpenShiftException("Application " + app.name + " not found");
+                apps.remove(app.name);
+                destroyed.incrementAndGet();
+                return null;
+            }
+            return UNSUPPORTED;
+        }
+
+        @Override
+        public String toString() {
+            return "FakeBroker application " + app.name;
+        }
+    }
+
+    private class GearGroupResource extends Resource {
+        private final App app;
+
+        GearGroupResource(App app) {
+            this.app = app;
+        }
+
+        @Override
+        protected Object call(String method, Object[] args) {
+            if (method.equals("getName"))
+                return app.cartridge;
+            if (method.equals("getUUID"))
+                return app.uuid;
+            if (method.equals("getCartridges")) {
+                List<ICartridge> list = new ArrayList<ICartridge>();
+                list.add(cartridge(app.cartridge));
+                return list;
+            }
+            if (method.equals("getGears")) {
+                List<IGear> list = new ArrayList<IGear>();
+                list.add(proxy(IGear.class, new GearResource(app)));
+                return list;
+            }
+            return UNSUPPORTED;
+        }
+    }
+
+    private class GearResource extends Resource {
+        private final App app;
+
+        GearResource(App app) {
+            this.app = app;
+        }
+
+        @Override
+        protected Object call(String method, Object[] args) {
+            if (method.equals("getId"))
+                return app.uuid;
+            if (method.equals("getSshUrl"))
+                return "ssh://" + app.uuid + "@" + app.getHostName() + "/";
+            return UNSUPPORTED;
+        }
+    }
+
+    private class CartridgeResource extends Resource {
+        private final String name;
+
+        CartridgeResource(String name) {
+            this.name = name;
+        }
+
+        @Override
+        protected Object call(String method, Object[] args) {
+            if (method.equals("getName") || method.equals("getDisplayName"))
+                return name;
+            if (method.equals("getUrl") || method.equals("getDescription"))
+                return null;
+            return UNSUPPORTED;
+        }
+    }
+
+    private class ProfileResource extends Resource {
+        private final String name;
+
+        ProfileResource(String name) {
+            this.name = name;
+        }
+
+        @Override
+        protected Object call(String method, Object[] args) {
+            if (method.equals("getName"))
+                return name;
+            return UNSUPPORTED;
+        }
+    }
+}
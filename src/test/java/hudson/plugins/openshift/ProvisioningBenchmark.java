@@ -0,0 +1,283 @@
+package hudson.plugins.openshift;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Label;
+import hudson.slaves.NodeProvisioner.PlannedNode;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.openshift.client.IApplication;
+
+/**
+ * JMH benchmarks of the provisioning hot paths: planning builders in
+ * {@link OpenShiftCloud#provision}, listing builders and looking
+ * applications up by UUID as the number of applications grows, and
+ * resolving a label to its {@link BuilderSpec}.
+ * <p/>
+ * They run against a {@link FakeBroker}, which stubs the
+ * {@link BrokerConnector} and not the broker's REST API. The client's HTTP
+ * and JSON handling is never exercised, so the numbers leave out the
+ * client's own overhead as well as the network. Builders planned by
+ * {@link #provision} fail their SSH launch against a closed port and are
+ * destroyed between iterations.
+ * <p/>
+ * Not part of the regular build, run them with
+ * <code>mvn -Pbenchmark test-compile exec:exec</code>, picking benchmarks
+ * with <code>-Dbenchmark=&lt;regex&gt;</code>. Results go to
+ * <code>target/benchmark-results.txt</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ProvisioningBenchmark {
+    private static final int LABELS = 50;
+    private static final long DRAIN_TIMEOUT = 60 * 1000;
+
+    // Keeps the plugin's per-builder logging out of the measurements
+    private static final Logger PLUGIN_LOGGER = Logger.getLogger("hudson.plugins.openshift");
+
+    /**
+     * A Jenkins instance with a cloud connected to a {@link FakeBroker}.
+     */
+    public abstract static class Fixture {
+        JenkinsRule j;
+        FakeBroker broker;
+        OpenShiftCloud cloud;
+        private HostResolver resolver;
+
+        protected void start() throws Throwable {
+            // Nothing listens there, so launches fail at once
+            System.setProperty(SshSessionManager.class.getName() + ".port",
+                    Integer.toString(getClosedPort()));
+            PLUGIN_LOGGER.setLevel(java.util.logging.Level.WARNING);
+
+            j = new JenkinsRule();
+            j.apply(new Statement() {
+                public void evaluate() {
+                }
+            }, Description.createSuiteDescription(ProvisioningBenchmark.class));
+            j.before();
+
+            broker = new FakeBroker();
+            broker.setMaxGears(100000);
+            cloud = broker.install();
+            j.jenkins.clouds.add(cloud);
+            resolver = DnsReadinessProbe.getResolver();
+            DnsReadinessProbe.setResolver(new HostResolver() {
+                public InetAddress resolve(String hostname) throws UnknownHostException {
+                    return InetAddress.getByName("127.0.0.1");
+                }
+            });
+        }
+
+        /**
+         * Creates a job set up the way the OpenShift cartridge does, and
+         * returns its label.
+         */
+        protected Label createJob(String name) throws IOException {
+            FreeStyleProject job = j.createFreeStyleProject(name);
+            job.setAssignedLabel(j.jenkins.getLabel(name));
+            job.addProperty(new OpenShiftBuilderTypeJobProperty("redhat-" + FakeBroker.CARTRIDGE));
+            job.addProperty(new OpenShiftBuilderSizeJobProperty("small"));
+            return j.jenkins.getLabel(name);
+        }
+
+        protected void stop() throws Exception {
+            DnsReadinessProbe.setResolver(resolver);
+            FakeBroker.uninstall();
+            j.after();
+        }
+
+        private static int getClosedPort() throws IOException {
+            ServerSocket socket = new ServerSocket(0);
+            try {
+                return socket.getLocalPort();
+            } finally {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * One job per label, each without a builder at the start of an
+     * iteration.
+     */
+    @State(Scope.Benchmark)
+    public static class Labels extends Fixture {
+        Label[] labels = new Label[LABELS];
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Throwable {
+            start();
+            for (int i = 0; i < LABELS; i++) {
+                labels[i] = createJob("app" + i + "-build");
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            stop();
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            next = 0;
+        }
+
+        /**
+         * Waits for the builders planned during the iteration to fail their
+         * launch and be destroyed.
+         */
+        @TearDown(Level.Iteration)
+        public void drain() throws Exception {
+            long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT;
+            for (Label label : labels) {
+                String name = BuilderSpec.forLabel(label.getName(),
+                        cloud.getDefaultBuilderSize()).getBuilderName();
+                while ((ProvisioningPipeline.isInFlight(name)
+                        || cloud.getTerminationService().isPending(name))
+                        && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+            }
+            if (!broker.awaitApplications(FakeBroker.NAMESPACE, 0,
+                    Math.max(0, deadline - System.currentTimeMillis()))) {
+                throw new IllegalStateException("Builders left after the iteration: "
+                        + broker.getApplicationNames(FakeBroker.NAMESPACE));
+            }
+        }
+
+        Label nextLabel() {
+            return labels[next++ % labels.length];
+        }
+    }
+
+    /**
+     * The given number of builder applications on the broker, none of them
+     * added to Jenkins yet.
+     */
+    @State(Scope.Benchmark)
+    public static class Applications extends Fixture {
+        @Param({"10", "100", "1000"})
+        public int applications;
+
+        String uuid;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Throwable {
+            start();
+            String name = null;
+            for (int i = 0; i < applications; i++) {
+                name = "app" + i + OpenShiftCloud.APP_NAME_BUILDER_EXTENSION;
+                broker.addApplication(FakeBroker.NAMESPACE, name, FakeBroker.CARTRIDGE);
+            }
+            uuid = broker.getUuid(FakeBroker.NAMESPACE, name);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            stop();
+        }
+    }
+
+    /**
+     * A single job and its label.
+     */
+    @State(Scope.Benchmark)
+    public static class Spec extends Fixture {
+        String label;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Throwable {
+            start();
+            label = createJob("app-build").getName();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            stop();
+        }
+    }
+
+    /**
+     * Plans a new builder for a label that has none, as the NodeProvisioner
+     * does for a burst of builds on distinct labels. Each measured batch
+     * provisions every label once.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5, batchSize = LABELS)
+    @Measurement(iterations = 10, batchSize = LABELS)
+    public Collection<PlannedNode> provision(Labels state) {
+        return state.cloud.provision(state.nextLabel(), 1);
+    }
+
+    /**
+     * Lists the builders from the registry's current index.
+     */
+    @Benchmark
+    public List<OpenShiftSlave> getSlaves(Applications state) throws IOException {
+        return state.cloud.getSlaves();
+    }
+
+    /**
+     * Lists the builders after rebuilding the registry's index from the
+     * broker, as after an invalidation.
+     */
+    @Benchmark
+    public List<OpenShiftSlave> getSlavesAfterInvalidation(Applications state) throws IOException {
+        state.cloud.getApplicationRegistry().invalidate();
+        return state.cloud.getSlaves();
+    }
+
+    @Benchmark
+    public IApplication getApplicationFromUuid(Applications state) {
+        return Util.getApplicationFromUuid(state.uuid);
+    }
+
+    /**
+     * Resolves a label whose spec is cached.
+     */
+    @Benchmark
+    public BuilderSpec forLabel(Spec state) {
+        return BuilderSpec.forLabel(state.label, "small");
+    }
+
+    /**
+     * Resolves a label from its job's properties, as after the job was
+     * saved.
+     */
+    @Benchmark
+    public BuilderSpec forLabelAfterInvalidation(Spec state) {
+        BuilderSpec.invalidate(state.label);
+        return BuilderSpec.forLabel(state.label, "small");
+    }
+}
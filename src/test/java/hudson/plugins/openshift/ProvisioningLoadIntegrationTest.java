@@ -0,0 +1,344 @@
+package hudson.plugins.openshift;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import hudson.model.Cause;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Node;
+import hudson.model.ParametersAction;
+import hudson.model.StringParameterValue;
+import hudson.model.queue.QueueTaskFuture;
+import hudson.remoting.Channel;
+import hudson.remoting.Launcher;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.UnknownHostException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sshd.SshServer;
+import org.apache.sshd.server.Command;
+import org.apache.sshd.server.CommandFactory;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.PublickeyAuthenticator;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.session.ServerSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.KeyPair;
+
+/**
+ * Queues builds for many OpenShift jobs against a {@link FakeBroker},
+ * stubbed DNS and an in-process SSH server standing in for the builder
+ * gears. It checks that every build starts within the queue-to-start
+ * budget, and that tearing the builders down leaves no gears, reservations
+ * or threads behind.
+ * <p/>
+ * The SSH server runs the bootstrap commands of
+ * {@link OpenShiftComputerLauncher} in-process, so builders come online and
+ * run their builds in this JVM. Not part of the regular build, run it with
+ * <code>mvn test -Dtest=ProvisioningLoadIntegrationTest</code>. The size of
+ * the run is set with the <code>labels</code>, <code>buildsPerLabel</code>,
+ * <code>maxGears</code>, <code>latency</code> (in ms) and
+ * <code>maxQueueToStart</code> (the p99 budget, in ms) system properties,
+ * prefixed with this class' name. The results are written to the file named
+ * by the <code>report</code> property.
+ */
+public class ProvisioningLoadIntegrationTest {
+    private static final String PREFIX = ProvisioningLoadIntegrationTest.class.getName() + ".";
+    private static final int LABELS = Integer.getInteger(PREFIX + "labels", 100);
+    private static final int BUILDS_PER_LABEL = Integer.getInteger(PREFIX + "buildsPerLabel", 3);
+    private static final int MAX_BUILDERS_PER_LABEL = 3;
+    private static final int MAX_GEARS = Integer.getInteger(PREFIX + "maxGears",
+            LABELS * MAX_BUILDERS_PER_LABEL);
+    private static final int LATENCY = Integer.getInteger(PREFIX + "latency", 20);
+    private static final long MAX_QUEUE_TO_START = Long.getLong(PREFIX + "maxQueueToStart", 5 * 60 * 1000);
+    private static final String REPORT = System.getProperty(PREFIX + "report",
+            "target/provisioning-load-report.txt");
+    private static final long DRAIN_TIMEOUT = 10 * 60 * 1000;
+    // Idle pool threads time out after 60s
+    private static final long THREAD_TIMEOUT = 2 * 60 * 1000;
+    private static final String[] POOLS = {"OpenShift provisioning", "OpenShift broker call",
+            "OpenShift termination", "OpenShift SSH exec"};
+
+    private static final int SSH_PORT;
+
+    static {
+        // Read once by the session manager, so it has to be set before any
+        // builder connects
+        try {
+            SSH_PORT = getFreePort();
+        } catch (IOException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+        System.setProperty(SshSessionManager.class.getName() + ".port", Integer.toString(SSH_PORT));
+    }
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private FakeBroker broker;
+    private OpenShiftCloud cloud;
+    private HostResolver resolver;
+    private SshServer sshd;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new FakeBroker();
+        broker.setLatency(LATENCY);
+        broker.setMaxGears(MAX_GEARS);
+        cloud = broker.install();
+        cloud.setMaxBuildersPerLabel(MAX_BUILDERS_PER_LABEL);
+        j.jenkins.clouds.add(cloud);
+        resolver = DnsReadinessProbe.getResolver();
+        DnsReadinessProbe.setResolver(new HostResolver() {
+            public InetAddress resolve(String hostname) throws UnknownHostException {
+                return InetAddress.getByName("127.0.0.1");
+            }
+        });
+
+        // The identity the builders are reached with; the server takes any key
+        File key = cloud.getPrivateKey();
+        key.getParentFile().mkdirs();
+        KeyPair.genKeyPair(new JSch(), KeyPair.RSA).writePrivateKey(key.getPath());
+
+        sshd = SshServer.setUpDefaultServer();
+        sshd.setHost("127.0.0.1");
+        sshd.setPort(SSH_PORT);
+        sshd.setKeyPairProvider(new SimpleGeneratorHostKeyProvider());
+        sshd.setPublickeyAuthenticator(new PublickeyAuthenticator() {
+            public boolean authenticate(String username, PublicKey key, ServerSession session) {
+                return true;
+            }
+        });
+        sshd.setCommandFactory(new CommandFactory() {
+            public Command createCommand(String command) {
+                return new BuilderCommand(command);
+            }
+        });
+        sshd.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (sshd != null) {
+            sshd.stop(true);
+        }
+        // Other tests expect no identity, so their launches fail
+        cloud.getPrivateKey().delete();
+        DnsReadinessProbe.setResolver(resolver);
+        FakeBroker.uninstall();
+    }
+
+    @Test
+    public void buildsStartInTimeAndLeaveNothingBehind() throws Exception {
+        File workspaces = new File(j.jenkins.getRootDir(), "builder-workspaces");
+        List<FreeStyleProject> jobs = new ArrayList<FreeStyleProject>();
+        for (int i = 0; i < LABELS; i++) {
+            // Labels named after the job, as the OpenShift cartridge sets them up
+            String name = "app" + i + "-build";
+            FreeStyleProject job = j.createFreeStyleProject(name);
+            job.setAssignedLabel(j.jenkins.getLabel(name));
+            job.setConcurrentBuild(true);
+            // The builders' file system is this machine's
+            job.setCustomWorkspace(new File(workspaces, name).getAbsolutePath());
+            job.addProperty(new OpenShiftBuilderTypeJobProperty("redhat-" + FakeBroker.CARTRIDGE));
+            job.addProperty(new OpenShiftBuilderSizeJobProperty("small"));
+            jobs.add(job);
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        LatencyHistogram queueToStart = ProvisioningMetrics.get()
+                .getStage(ProvisioningMetrics.Stage.QUEUE_TO_START);
+        long startedBefore = queueToStart.getCount();
+        long start = System.currentTimeMillis();
+        List<QueueTaskFuture<FreeStyleBuild>> builds = new ArrayList<QueueTaskFuture<FreeStyleBuild>>();
+        for (int build = 0; build < BUILDS_PER_LABEL; build++) {
+            for (FreeStyleProject job : jobs) {
+                // Distinct parameters keep the queue from merging the builds
+                builds.add(job.scheduleBuild2(0, new Cause.UserIdCause(), new ParametersAction(
+                        new StringParameterValue("BUILD", Integer.toString(build)))));
+            }
+        }
+
+        int completed = 0;
+        int cancelled = 0;
+        for (QueueTaskFuture<FreeStyleBuild> build : builds) {
+            long remaining = Math.max(0, start + DRAIN_TIMEOUT - System.currentTimeMillis());
+            try {
+                if (build.get(remaining, TimeUnit.MILLISECONDS) != null)
+                    completed++;
+            } catch (CancellationException e) {
+                cancelled++;
+            }
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        long started = queueToStart.getCount() - startedBefore;
+        int created = broker.getCreated();
+
+        // Builders are kept for the next build; hand them all back
+        for (Node node : j.jenkins.getNodes()) {
+            if (node instanceof OpenShiftSlave) {
+                ((OpenShiftSlave) node).terminate();
+            }
+        }
+        boolean drained = broker.awaitApplications(FakeBroker.NAMESPACE, 0, DRAIN_TIMEOUT);
+        int peakThreads = threads.getPeakThreadCount();
+        List<String> leftover = awaitPoolThreads(THREAD_TIMEOUT);
+
+        writeReport("Queued " + builds.size() + " builds for " + LABELS + " labels in "
+                + elapsed + "ms: " + started + " started, " + completed + " completed, "
+                + cancelled + " cancelled\n"
+                + "Queue to start p50 " + queueToStart.getPercentile(50) + "ms, p95 "
+                + queueToStart.getPercentile(95) + "ms, p99 " + queueToStart.getPercentile(99)
+                + "ms, max " + queueToStart.getMax() + "ms\n"
+                + "Created " + created + " builders (" + created * 1000L / Math.max(elapsed, 1)
+                + "/s), destroyed " + broker.getDestroyed() + ", peak threads " + peakThreads + "\n\n"
+                + ProvisioningMetrics.get().toText());
+
+        assertEquals("Builds cancelled", 0, cancelled);
+        assertEquals("Builds not started", builds.size(), started);
+        assertTrue("Queue to start p99 of " + queueToStart.getPercentile(99) + "ms over "
+                + MAX_QUEUE_TO_START + "ms", queueToStart.getPercentile(99) <= MAX_QUEUE_TO_START);
+        assertTrue("Builder gears leaked: " + broker.getApplicationNames(FakeBroker.NAMESPACE),
+                drained);
+        assertEquals(broker.getCreated(), broker.getDestroyed());
+        assertEquals("Gear reservations leaked", MAX_GEARS, cloud.getCapacityLedger().getAvailable());
+        assertTrue("Threads still running: " + leftover, leftover.isEmpty());
+    }
+
+    private static void writeReport(String report) throws IOException {
+        File file = new File(REPORT);
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            writer.print(report);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Waits for the plugin's pools to let their threads go and returns the
+     * names of those still alive after the timeout.
+     */
+    private static List<String> awaitPoolThreads(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            List<String> names = new ArrayList<String>();
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                for (String pool : POOLS) {
+                    if (thread.getName().startsWith(pool))
+                        names.add(thread.getName());
+                }
+            }
+            if (names.isEmpty() || System.currentTimeMillis() >= deadline)
+                return names;
+            Thread.sleep(1000);
+        }
+    }
+
+    private static int getFreePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Plays a builder gear's side of the commands the launcher runs: the
+     * slave.jar checksum, its upload and starting it, which runs the slave
+     * end of the channel in-process.
+     */
+    private static class BuilderCommand implements Command, Runnable {
+        private final String command;
+        private InputStream in;
+        private OutputStream out;
+        private OutputStream err;
+        private ExitCallback callback;
+        private Thread thread;
+
+        BuilderCommand(String command) {
+            this.command = command;
+        }
+
+        public void setInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        public void setOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        public void setErrorStream(OutputStream err) {
+            this.err = err;
+        }
+
+        public void setExitCallback(ExitCallback callback) {
+            this.callback = callback;
+        }
+
+        public void start(Environment env) {
+            thread = new Thread(this, "Fake builder: " + command);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public void destroy() {
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        public void run() {
+            int status = 0;
+            try {
+                if (command.startsWith("java -jar")) {
+                    Launcher.main(in, out, Channel.Mode.BINARY, false);
+                } else if (command.contains("cat > slave.jar.tmp")) {
+                    byte[] buffer = new byte[8192];
+                    while (in.read(buffer) != -1) {
+                        // Every gear is new, so the jar is never kept
+                    }
+                }
+                // Nothing to checksum, the md5sum prints nothing
+            } catch (Exception e) {
+                status = 1;
+                e.printStackTrace(new PrintStream(err, true));
+            } finally {
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    // the channel is gone already
+                }
+                callback.onExit(status);
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package hudson.plugins.openshift;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import hudson.model.Node;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import com.openshift.client.OpenShiftException;
+
+/**
+ * Drives builders through the pipeline against a {@link FakeBroker}. There
+ * is no SSH server, so builders that get as far as launching fail there and
+ * must be cleaned up.
+ */
+public class ProvisioningPipelineTest {
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private FakeBroker broker;
+    private OpenShiftCloud cloud;
+    private HostResolver resolver;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new FakeBroker();
+        cloud = broker.install();
+        j.jenkins.clouds.add(cloud);
+        resolver = DnsReadinessProbe.getResolver();
+        DnsReadinessProbe.setResolver(new HostResolver() {
+            public InetAddress resolve(String hostname) throws UnknownHostException {
+                return InetAddress.getByName("127.0.0.1");
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        DnsReadinessProbe.setResolver(resolver);
+        FakeBroker.uninstall();
+    }
+
+    @Test
+    public void configurationFaultIsNotRetried() throws Exception {
+        OpenShiftSlave slave = newSlave("phpbldr", "php-5.4");
+        Throwable failure = getFailure(submit(slave));
+
+        assertTrue(failure.toString(), failure instanceof BuilderConfigurationException);
+        assertEquals(0, broker.getCalls("createApplication"));
+        assertFalse(ProvisioningPipeline.isInFlight(slave.getNodeName()));
+        assertEquals(100, cloud.getCapacityLedger().getAvailable());
+    }
+
+    @Test
+    public void builderThatDoesntComeOnlineIsDestroyed() throws Exception {
+        broker.failNext("createApplication", new OpenShiftException("Internal error"));
+        OpenShiftSlave slave = newSlave("jbossbldr", FakeBroker.CARTRIDGE);
+        getFailure(submit(slave));
+
+        assertEquals(2, broker.getCalls("createApplication"));
+        assertTrue("Builder gear leaked",
+                broker.awaitApplications(FakeBroker.NAMESPACE, 0, 30000));
+        assertEquals(1, broker.getDestroyed());
+        long deadline = System.currentTimeMillis() + 30000;
+        while (cloud.getTerminationService().isPending(slave.getNodeName())
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse("Termination still pending",
+                cloud.getTerminationService().isPending(slave.getNodeName()));
+        assertNull(j.jenkins.getNode(slave.getNodeName()));
+        assertFalse(ProvisioningPipeline.isInFlight(slave.getNodeName()));
+        assertEquals(100, cloud.getCapacityLedger().getAvailable());
+    }
+
+    @Test
+    public void cancelBeforeCreationReleasesTheGear() throws Exception {
+        broker.failNext("createApplication", new OpenShiftException("Internal error"));
+        OpenShiftSlave slave = newSlave("rubybldr", FakeBroker.CARTRIDGE);
+        Future<Node> future = submit(slave);
+
+        // Cancel while it backs off from the failed attempt
+        long deadline = System.currentTimeMillis() + 30000;
+        while (broker.getCalls("createApplication") == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        ProvisioningPipeline.cancel(slave.getNodeName());
+
+        Throwable failure = getFailure(future);
+        assertTrue(failure.toString(), failure instanceof CancellationException);
+        assertEquals(1, broker.getCalls("createApplication"));
+        assertEquals(0, broker.getCreated());
+        assertFalse(ProvisioningPipeline.isInFlight(slave.getNodeName()));
+        assertEquals(100, cloud.getCapacityLedger().getAvailable());
+    }
+
+    private OpenShiftSlave newSlave(String name, String cartridge) throws Exception {
+        return new OpenShiftSlave(name, "", "redhat-" + cartridge, "small", null,
+                OpenShiftCloud.DEFAULT_PLATFORM, name, -1, 1, 15);
+    }
+
+    private Future<Node> submit(OpenShiftSlave slave) throws Exception {
+        assertTrue(cloud.getCapacityLedger().reserve(1));
+        return ProvisioningPipeline.submit(cloud, slave, null, slave.getLabelString());
+    }
+
+    private static Throwable getFailure(Future<Node> future) throws Exception {
+        try {
+            future.get(60, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        fail("Builder came online without an SSH server");
+        return null;
+    }
+}
@@ -0,0 +1,94 @@
+package hudson.plugins.openshift;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import hudson.model.Descriptor.FormException;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import org.junit.Test;
+
+import com.jcraft.jsch.JSchException;
+import com.openshift.client.OpenShiftException;
+
+public class RetryPolicyTest {
+    @Test
+    public void classifiesByTypeInTheCauseChain() {
+        assertEquals(RetryPolicy.Fault.CONFIGURATION,
+                RetryPolicy.classify(new BuilderConfigurationException("Cartridge for php-9 not found")));
+        assertEquals(RetryPolicy.Fault.CONFIGURATION,
+                RetryPolicy.classify(new IOException(new FormException("Bad label", "label"))));
+        assertEquals(RetryPolicy.Fault.CONFIGURATION,
+                RetryPolicy.classify(new UnsupportedOperationException()));
+        assertEquals(RetryPolicy.Fault.QUOTA,
+                RetryPolicy.classify(new CapacityLedger.QuotaExceededException("No gears left",
+                        new OpenShiftException("Refused"))));
+        assertEquals(RetryPolicy.Fault.NETWORK,
+                RetryPolicy.classify(new RuntimeException(new SocketTimeoutException())));
+        assertEquals(RetryPolicy.Fault.NETWORK,
+                RetryPolicy.classify(new JSchException("Auth fail")));
+        assertEquals(RetryPolicy.Fault.NETWORK,
+                RetryPolicy.classify(new BrokerProxy.BrokerTimeoutException("createApplication timed out")));
+        assertEquals(RetryPolicy.Fault.BROKER,
+                RetryPolicy.classify(new OpenShiftException("Internal error")));
+    }
+
+    @Test
+    public void configurationWinsOverNetwork() {
+        IOException wrapped = new IOException(new BuilderConfigurationException("Missing application"));
+        assertEquals(RetryPolicy.Fault.CONFIGURATION, RetryPolicy.classify(wrapped));
+    }
+
+    @Test
+    public void messagesAreIgnored() {
+        assertEquals(RetryPolicy.Fault.BROKER,
+                RetryPolicy.classify(new OpenShiftException("quota exceeded for user")));
+        assertEquals(RetryPolicy.Fault.BROKER,
+                RetryPolicy.classify(new OpenShiftException("Invalid credentials")));
+    }
+
+    @Test
+    public void retriesOnlyRetryableFaultsUpToTheLimit() {
+        RetryPolicy policy = new RetryPolicy(3, 100, 1000);
+        assertTrue(policy.shouldRetry(RetryPolicy.Fault.BROKER, 2));
+        assertFalse(policy.shouldRetry(RetryPolicy.Fault.BROKER, 3));
+        assertTrue(policy.shouldRetry(RetryPolicy.Fault.NETWORK, 0));
+        assertFalse(policy.shouldRetry(RetryPolicy.Fault.QUOTA, 0));
+        assertFalse(policy.shouldRetry(RetryPolicy.Fault.CONFIGURATION, 0));
+    }
+
+    @Test
+    public void delayGrowsExponentiallyUpToTheCap() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+        for (int i = 0; i < 100; i++) {
+            assertBetween(50, 100, policy.getDelay(1));
+            assertBetween(100, 200, policy.getDelay(2));
+            assertBetween(200, 400, policy.getDelay(3));
+            assertBetween(500, 1000, policy.getDelay(10));
+            assertBetween(500, 1000, policy.getDelay(100));
+        }
+    }
+
+    @Test
+    public void backOffIsTrackedPerKey() throws Exception {
+        RetryPolicy policy = new RetryPolicy(3, 100, 1000);
+        policy.backOff("php", 2, 10000);
+
+        assertEquals(2, policy.getFailures("php"));
+        assertEquals(0, policy.getFailures("ruby"));
+        assertBetween(1, 10000, policy.getRemainingDelay("php"));
+        assertEquals(0, policy.getRemainingDelay("ruby"));
+
+        policy.reset("php");
+        assertEquals(0, policy.getFailures("php"));
+        assertEquals(0, policy.getRemainingDelay("php"));
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual + " is not between " + min + " and " + max,
+                actual >= min && actual <= max);
+    }
+}